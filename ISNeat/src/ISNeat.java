@@ -1,18 +1,62 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+
 import evolution.Evolver;
 import evolution.Genome;
+import island.IslandClient;
+import island.IslandHub;
+import island.RemoteInnovationRegistry;
 import task.JumperTask;
 
 /**
  * Main class for running the NEAT algorithm
  * 
+ * With no arguments a single population is evolved.  For the island model,
+ * start a hub with "hub <port>", and then any number of islands with
+ * "island <host> <port>".  To save the population every few generations, and
+ * carry on from the last save when started again, use "checkpoint <file>".
+ * 
  * @author William Carver
  */
 public class ISNeat {
 
-	public static void main(String[] args) {
+	// Generations between exchanges of genomes between islands
+	private static final int MIGRATION_INTERVAL = 10;
+	// Genomes each island sends in an exchange
+	private static final int MIGRANTS = 5;
+	// Generations between checkpoints
+	private static final int CHECKPOINT_INTERVAL = 10;
+	
+	public static void main(String[] args) throws IOException {
+		if( args.length == 2 && args[0].equals("hub") ) {
+			IslandHub hub = new IslandHub(Integer.parseInt(args[1]));
+			System.out.println("Hub listening on port " + hub.getPort());
+			hub.run();
+			return;
+		}
+		
 		JumperTask jt = new JumperTask( 123456789, 20000 );
 
-		Evolver evolver = new Evolver(jt, 150);
+		Evolver evolver;
+		if( args.length == 3 && args[0].equals("island") ) {
+			int firstNodeId = jt.getInputs().size() + jt.getOutputs().size();
+			IslandClient hub = new IslandClient(args[1], Integer.parseInt(args[2]), jt);
+			evolver = new Evolver(jt, 150, ForkJoinPool.commonPool(), new RemoteInnovationRegistry(hub, firstNodeId));
+			evolver.setMigration(hub, MIGRATION_INTERVAL, MIGRANTS);
+		} else if( args.length == 2 && args[0].equals("checkpoint") ) {
+			Path file = Paths.get(args[1]);
+			if( Files.exists(file) ) {
+				evolver = Evolver.resume(jt, ForkJoinPool.commonPool(), file);
+			} else {
+				evolver = new Evolver(jt, 150);
+			}
+			evolver.setCheckpoint(file, CHECKPOINT_INTERVAL);
+		} else {
+			evolver = new Evolver(jt, 150);
+		}
 		Genome best = evolver.evolve();
 		System.out.println(best);
 		
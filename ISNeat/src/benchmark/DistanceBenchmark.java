@@ -0,0 +1,180 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import evolution.ConnectionGene;
+import evolution.Evolver;
+import evolution.Genome;
+import evolution.NodeGene;
+import evolution.NodeType;
+
+/**
+ * Compares Genome.calculateDistance, which merges the two genomes' innovation
+ * ordered genes, against the original version that built a map of each
+ * genome's genes on every call.  Every pair of genomes is checked to give
+ * exactly the same distance before anything is timed.
+ */
+public class DistanceBenchmark {
+	
+	private static final int NUM_GENOMES = 200;
+	private static final int NUM_INNOVATIONS = 400;
+	private static final int WARMUP_ITERATIONS = 20;
+	private static final int MEASURED_ITERATIONS = 20;
+	
+	private static double sink = 0;
+	
+	public static void main(String[] args) {
+		Random rand = new Random(42);
+		
+		System.out.println("genes\tmap ns/pair\tmerge ns/pair\tspeedup");
+		for( int genes : new int[] {10, 50, 200} ) {
+			List<Genome> genomes = new ArrayList<Genome>();
+			for( int i = 0; i < NUM_GENOMES; i++ ) {
+				genomes.add(randomGenome(genes, rand));
+			}
+			
+			for( Genome a : genomes ) {
+				for( Genome b : genomes ) {
+					double merged = a.calculateDistance(b, Evolver.C1, Evolver.C2, Evolver.C3);
+					double mapped = mapDistance(a, b, Evolver.C1, Evolver.C2, Evolver.C3);
+					if( Double.doubleToLongBits(merged) != Double.doubleToLongBits(mapped) ) {
+						throw new IllegalStateException("Distances differ: " + merged + " != " + mapped + " for " + a + " and " + b);
+					}
+				}
+			}
+			
+			double mapTime = time(genomes, false);
+			double mergeTime = time(genomes, true);
+			System.out.println(String.format("%d\t%.1f\t\t%.1f\t\t%.2fx", genes, mapTime, mergeTime, mapTime / mergeTime));
+		}
+		System.out.println("(sink " + sink + ")");
+	}
+	
+	/**
+	 * Time one version of the distance
+	 * @return	The average time per pair of genomes in nanoseconds
+	 */
+	private static double time( List<Genome> genomes, boolean merged ) {
+		for( int i = 0; i < WARMUP_ITERATIONS; i++ ) {
+			allPairs(genomes, merged);
+		}
+		long start = System.nanoTime();
+		for( int i = 0; i < MEASURED_ITERATIONS; i++ ) {
+			allPairs(genomes, merged);
+		}
+		long elapsed = System.nanoTime() - start;
+		return (double) elapsed / MEASURED_ITERATIONS / genomes.size() / genomes.size();
+	}
+	
+	private static void allPairs( List<Genome> genomes, boolean merged ) {
+		for( Genome a : genomes ) {
+			for( Genome b : genomes ) {
+				if( merged ) {
+					sink += a.calculateDistance(b, Evolver.C1, Evolver.C2, Evolver.C3);
+				} else {
+					sink += mapDistance(a, b, Evolver.C1, Evolver.C2, Evolver.C3);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Make a random genome drawing its genes from a shared set of innovations,
+	 * with the occasional repeated innovation number like mutateAddNode can make
+	 */
+	private static Genome randomGenome( int numGenes, Random rand ) {
+		List<NodeGene> nodes = new ArrayList<NodeGene>();
+		for( int i = 0; i < 10; i++ ) {
+			nodes.add(new NodeGene(i, NodeType.HIDDEN));
+		}
+		List<ConnectionGene> connections = new ArrayList<ConnectionGene>();
+		for( int i = 0; i < numGenes; i++ ) {
+			int innov = rand.nextInt(Math.min(NUM_INNOVATIONS, numGenes * 2));
+			connections.add(new ConnectionGene(innov, rand.nextDouble() * 2 - 1, innov % 10, (innov / 10) % 10));
+		}
+		return new Genome(nodes, connections);
+	}
+	
+	/**
+	 * The original distance, which builds a map of each genome's gene weights
+	 */
+	static double mapDistance( Genome genome, Genome other, double c1, double c2, double c3 ) {
+		int aSize = genome.getNumConnections();
+		int bSize = other.getNumConnections();
+		
+		// Calculate the normalization factor (size of larger of two genomes)
+		double N = Math.max(aSize, bSize);
+		// If significantly small, don't normalize -> N=1
+		if( N < 20 ) N = 1;
+		
+		if( aSize == 0 ) {
+			if( bSize == 0 ) {
+				// no connections to compare from either genome...
+				return 0;
+			} else {
+				// no connections in this genome, just calculate number of excess in the other genome (normalized)
+				return c1 * bSize / N; 
+			}
+		} else if( bSize == 0 ) {
+			// no connections in other genome, just calculate number of excess in this genome (normalized)
+			return c1 * aSize / N;
+		} else {
+			// both genomes contain connection genes, so do a gene-for-gene comparison...
+			double numExcess = 0;
+			double numDisjoint = 0;
+			double weightDiff = 0;
+			
+			// remember the max innovation number for each genome (to determine excess vs disjoint)
+			int aMax = 0;
+			int bMax = 0;
+			
+			// make a map of each genome's gene weights for quick comparison
+			HashMap<Integer,Double> aGeneWeights = new HashMap<Integer,Double>();
+			for( int g = 0; g < aSize; g++ ) {
+				aMax = Math.max( aMax, genome.getInnov(g) );
+				aGeneWeights.put( genome.getInnov(g), genome.getWeight(g) );
+			}
+			HashMap<Integer,Double> bGeneWeights = new HashMap<Integer,Double>();
+			for( int g = 0; g < bSize; g++ ) {
+				bMax = Math.max( bMax, other.getInnov(g) );
+				bGeneWeights.put( other.getInnov(g), other.getWeight(g) );
+			}
+			
+			// go through this genome's genes and compare with the other genome's genes
+			for( int g = 0; g < aSize; g++ ) {
+				if( bGeneWeights.get( genome.getInnov(g) ) == null ) {
+					if( genome.getInnov(g) > bMax ) {
+						// this is an excess gene
+						numExcess++;
+					} else {
+						// this is a disjoint gene
+						numDisjoint++;
+					}
+				} else {
+					// add the weight difference.
+					weightDiff += Math.abs( genome.getWeight(g) - bGeneWeights.get( genome.getInnov(g) ) );
+				}
+			}
+			
+			// go through the other genome's genes and compare with this genome's genes
+			for( int g = 0; g < bSize; g++ ) {
+				if( aGeneWeights.get(other.getInnov(g)) == null ) {
+					if( other.getInnov(g) > aMax ) {
+						// this is an excess gene
+						numExcess++;
+					} else {
+						// this is a disjoint gene
+						numDisjoint++;
+					}
+					// don't add weight differences, since they are all aready counted from the loop above
+				}
+			}
+			
+			// return sum of normalized connection differences
+			return (c1 * numExcess / N) + (c2 * numDisjoint / N) + (c3 * weightDiff);
+		}
+	}
+}
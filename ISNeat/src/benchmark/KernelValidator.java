@@ -0,0 +1,147 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import evolution.ConnectionGene;
+import evolution.Genome;
+import neuralnetwork.Activation;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.NeuralNetworkBuilder;
+
+/**
+ * Checks that compiled networks (see NeuralNetwork.compile) give exactly the
+ * same states as interpreted ones, for random recurrent and feed-forward
+ * genomes with every activation function, with and without oscillation
+ * detection.  Kernels are shared by networks with the same structure, so each
+ * genome is also checked with a second set of weights, and again after
+ * changing a weight of the compiled network.
+ */
+public class KernelValidator {
+	
+	private static final int NUM_INPUTS = 6;
+	private static final int NUM_OUTPUTS = 1;
+	private static final int NUM_GENOMES = 200;
+	private static final int NUM_STEPS = 20;
+	
+	public static void main(String[] args) {
+		Random rand = new Random(42);
+		
+		Map<String, Integer> inputs = new HashMap<String, Integer>();
+		for( int i = 0; i < NUM_INPUTS; i++ ) {
+			inputs.put("in" + i, i);
+		}
+		Map<String, Integer> outputs = new HashMap<String, Integer>();
+		for( int i = 0; i < NUM_OUTPUTS; i++ ) {
+			outputs.put("out" + i, NUM_INPUTS + i);
+		}
+		
+		int compiled = 0;
+		for( Activation activation : Activation.values() ) {
+			for( int i = 0; i < NUM_GENOMES; i++ ) {
+				int numHidden = rand.nextInt(50);
+				Genome genome;
+				if( i % 2 == 0 ) {
+					genome = PrecisionValidator.randomGenome(NUM_INPUTS, NUM_OUTPUTS, numHidden, NUM_INPUTS + numHidden * 3, rand);
+				} else {
+					genome = NetworkBenchmark.feedForwardGenome(numHidden, NUM_INPUTS + numHidden * 3, rand);
+				}
+				if( !check(genome, inputs, outputs, activation, rand) ) {
+					continue;
+				}
+				compiled++;
+				// the same structure with other weights gets the same kernel
+				check(reweighted(genome, rand), inputs, outputs, activation, rand);
+			}
+		}
+		System.out.println(compiled + " compiled networks gave the same states as interpreted ones");
+	}
+	
+	/**
+	 * Run a compiled and an interpreted network for a genome side by side,
+	 * both with full steps and with single passes, and throw if their states
+	 * ever differ in any bit
+	 * @return	True if the network could be compiled
+	 */
+	private static boolean check( Genome genome, Map<String, Integer> inputs, Map<String, Integer> outputs, Activation activation, Random rand ) {
+		NeuralNetwork interpreted = NeuralNetworkBuilder.build(genome, inputs, outputs, activation);
+		NeuralNetwork compiled = NeuralNetworkBuilder.build(genome, inputs, outputs, activation);
+		if( !compiled.compile() ) {
+			return false;
+		}
+		boolean detectOscillation = rand.nextBoolean();
+		interpreted.setOscillationDetection(detectOscillation);
+		compiled.setOscillationDetection(detectOscillation);
+		double[] values = new double[NUM_INPUTS];
+		for( int step = 0; step < NUM_STEPS; step++ ) {
+			for( int i = 0; i < NUM_INPUTS; i++ ) {
+				values[i] = rand.nextDouble() * 2 - 1;
+			}
+			interpreted.setInputs(values);
+			compiled.setInputs(values);
+			if( step % 2 == 0 ) {
+				interpreted.updateOnce();
+				compiled.updateOnce();
+			} else {
+				int expected = interpreted.updateUntilSteady(5);
+				int actual = compiled.updateUntilSteady(5);
+				if( expected != actual ) {
+					throw new IllegalStateException("Compiled network took " + actual + " updates instead of "
+							+ expected + " for " + genome);
+				}
+			}
+			compare(interpreted, compiled, genome);
+			
+			int gene = lastEnabledGene(genome);
+			if( step == NUM_STEPS / 2 && gene >= 0 ) {
+				// a new weight for an existing connection keeps the kernel
+				double weight = rand.nextDouble() + 0.5;
+				interpreted.setWeight(genome.getIn(gene), genome.getOut(gene), weight);
+				compiled.setWeight(genome.getIn(gene), genome.getOut(gene), weight);
+				if( !compiled.isCompiled() ) {
+					throw new IllegalStateException("Changing a weight dropped the kernel for " + genome);
+				}
+			}
+		}
+		return true;
+	}
+	
+	private static void compare( NeuralNetwork interpreted, NeuralNetwork compiled, Genome genome ) {
+		for( int n = 0; n < interpreted.getNumNodes(); n++ ) {
+			long expected = Double.doubleToLongBits(interpreted.getState(n));
+			long actual = Double.doubleToLongBits(compiled.getState(n));
+			if( expected != actual ) {
+				throw new IllegalStateException("Node " + n + " differs: " + compiled.getState(n) + " != "
+						+ interpreted.getState(n) + " for " + genome);
+			}
+		}
+	}
+	
+	/**
+	 * @return	The last enabled gene, which is the one a network has the weight of, or -1 if there isn't one
+	 */
+	private static int lastEnabledGene( Genome genome ) {
+		for( int g = genome.getNumConnections() - 1; g >= 0; g-- ) {
+			if( genome.isEnabled(g) && genome.getWeight(g) != 0 ) {
+				return g;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return	A genome with the same connections, but new non-zero weights
+	 */
+	private static Genome reweighted( Genome genome, Random rand ) {
+		List<ConnectionGene> connections = new ArrayList<ConnectionGene>();
+		for( ConnectionGene gene : genome.getConnections() ) {
+			ConnectionGene copy = gene.clone();
+			copy.setWeight(rand.nextDouble() + 0.5);
+			connections.add(copy);
+		}
+		return new Genome(genome.getNodes(), connections);
+	}
+}
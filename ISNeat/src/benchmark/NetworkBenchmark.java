@@ -0,0 +1,164 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import evolution.ConnectionGene;
+import evolution.Genome;
+import evolution.NodeGene;
+import evolution.NodeType;
+import neuralnetwork.Activation;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.NeuralNetworkBuilder;
+
+/**
+ * Compares evaluating a data set one row at a time against evaluating it in
+ * a single batch, for random feed-forward networks of increasing size, and
+ * then the cost of each activation function.  Last it compares full updates
+ * with incremental ones on rows where only one input changes from each row
+ * to the next, which is the case incremental updates are meant for.
+ *
+ * Each case is warmed up before it is measured so that the JIT has compiled
+ * the kernels, and every result is folded into a sink so the work can't be
+ * optimized away.  This is a plain timing loop rather than a JMH harness, so
+ * treat small differences as noise.  Run with the same JVM flags as a real run.
+ */
+public class NetworkBenchmark {
+	
+	private static final int NUM_INPUTS = 6;
+	private static final int NUM_OUTPUTS = 1;
+	private static final int NUM_ROWS = 1554;	// size of the car training set
+	private static final int WARMUP_ITERATIONS = 200;
+	private static final int MEASURED_ITERATIONS = 200;
+	
+	private static double sink = 0;
+	
+	public static void main(String[] args) {
+		Random rand = new Random(42);
+		
+		Map<String, Integer> inputs = new HashMap<String, Integer>();
+		for( int i = 0; i < NUM_INPUTS; i++ ) {
+			inputs.put("in" + i, i);
+		}
+		Map<String, Integer> outputs = new HashMap<String, Integer>();
+		for( int i = 0; i < NUM_OUTPUTS; i++ ) {
+			outputs.put("out" + i, NUM_INPUTS + i);
+		}
+		
+		double[][] rows = new double[NUM_ROWS][NUM_INPUTS];
+		for( double[] row : rows ) {
+			for( int i = 0; i < NUM_INPUTS; i++ ) {
+				row[i] = rand.nextDouble();
+			}
+		}
+		double[][] results = new double[NUM_ROWS][NUM_OUTPUTS];
+		
+		System.out.println("hidden\tconnections\trow ns/row\tbatch ns/row\tspeedup");
+		for( int hidden : new int[] {0, 10, 50, 200} ) {
+			Genome genome = feedForwardGenome(hidden, hidden * 3 + NUM_INPUTS, rand);
+			NeuralNetwork network = NeuralNetworkBuilder.build(genome, inputs, outputs);
+			
+			double rowTime = time(network, rows, results, false);
+			double batchTime = time(network, rows, results, true);
+			System.out.println(String.format("%d\t%d\t\t%.1f\t\t%.1f\t\t%.2fx", hidden, network.getNumConnections(),
+					rowTime, batchTime, rowTime / batchTime));
+		}
+		
+		Genome genome = feedForwardGenome(50, 50 * 3 + NUM_INPUTS, rand);
+		System.out.println("\nactivation\tbatch ns/row");
+		for( Activation activation : Activation.values() ) {
+			NeuralNetwork network = NeuralNetworkBuilder.build(genome, inputs, outputs, activation);
+			System.out.println(String.format("%s\t\t%.1f", activation, time(network, rows, results, true)));
+		}
+		
+		double[][] slowRows = new double[NUM_ROWS][];
+		slowRows[0] = rows[0];
+		for( int r = 1; r < NUM_ROWS; r++ ) {
+			slowRows[r] = slowRows[r-1].clone();
+			slowRows[r][rand.nextInt(NUM_INPUTS)] = rand.nextDouble();
+		}
+		System.out.println("\nhidden\tconnections\tfull ns/row\tincremental ns/row\tspeedup");
+		for( int hidden : new int[] {0, 10, 50, 200} ) {
+			genome = feedForwardGenome(hidden, hidden * 3 + NUM_INPUTS, rand);
+			NeuralNetwork full = NeuralNetworkBuilder.build(genome, inputs, outputs);
+			NeuralNetwork incremental = NeuralNetworkBuilder.build(genome, inputs, outputs);
+			incremental.setIncremental(true);
+			
+			double fullTime = time(full, slowRows, results, false);
+			double incrementalTime = time(incremental, slowRows, results, false);
+			System.out.println(String.format("%d\t%d\t\t%.1f\t\t%.1f\t\t\t%.2fx", hidden, full.getNumConnections(),
+					fullTime, incrementalTime, fullTime / incrementalTime));
+		}
+		System.out.println("(sink " + sink + ")");
+	}
+	
+	/**
+	 * Time one evaluation mode
+	 * @return	The average time per row in nanoseconds
+	 */
+	private static double time( NeuralNetwork network, double[][] rows, double[][] results, boolean batched ) {
+		for( int i = 0; i < WARMUP_ITERATIONS; i++ ) {
+			evaluate(network, rows, results, batched);
+		}
+		long start = System.nanoTime();
+		for( int i = 0; i < MEASURED_ITERATIONS; i++ ) {
+			evaluate(network, rows, results, batched);
+		}
+		long elapsed = System.nanoTime() - start;
+		return (double) elapsed / MEASURED_ITERATIONS / rows.length;
+	}
+	
+	private static void evaluate( NeuralNetwork network, double[][] rows, double[][] results, boolean batched ) {
+		if( batched ) {
+			network.updateBatch(rows, results, 5);
+		} else {
+			for( int r = 0; r < rows.length; r++ ) {
+				network.setInputs(rows[r]);
+				network.updateUntilSteady(5);
+				network.getOutputs(results[r]);
+			}
+		}
+		sink += results[rows.length - 1][0];
+	}
+	
+	/**
+	 * Make a random genome without cycles, where connections only go from lower to higher ranked nodes
+	 * (inputs, then hidden nodes in order, then outputs).
+	 */
+	static Genome feedForwardGenome( int numHidden, int numConnections, Random rand ) {
+		List<NodeGene> nodes = new ArrayList<NodeGene>();
+		for( int i = 0; i < NUM_INPUTS; i++ ) {
+			nodes.add(new NodeGene(i, NodeType.INPUT));
+		}
+		for( int i = 0; i < NUM_OUTPUTS; i++ ) {
+			nodes.add(new NodeGene(NUM_INPUTS + i, NodeType.OUTPUT));
+		}
+		int firstHidden = NUM_INPUTS + NUM_OUTPUTS;
+		for( int i = 0; i < numHidden; i++ ) {
+			nodes.add(new NodeGene(firstHidden + i, NodeType.HIDDEN));
+		}
+		
+		// rank: inputs are 0..NUM_INPUTS-1, hidden nodes follow, outputs are last
+		int numRanks = NUM_INPUTS + numHidden + NUM_OUTPUTS;
+		List<ConnectionGene> connections = new ArrayList<ConnectionGene>();
+		for( int innov = 0; innov < numConnections; innov++ ) {
+			int fromRank = rand.nextInt(NUM_INPUTS + numHidden);
+			int toRank = Math.max(fromRank + 1, NUM_INPUTS) + rand.nextInt(numRanks - Math.max(fromRank + 1, NUM_INPUTS));
+			connections.add(new ConnectionGene(innov, rand.nextDouble() * 2 - 1, nodeAtRank(fromRank, numHidden), nodeAtRank(toRank, numHidden)));
+		}
+		return new Genome(nodes, connections);
+	}
+	
+	private static int nodeAtRank( int rank, int numHidden ) {
+		if( rank < NUM_INPUTS ) {
+			return rank;
+		} else if( rank < NUM_INPUTS + numHidden ) {
+			return NUM_INPUTS + NUM_OUTPUTS + (rank - NUM_INPUTS);
+		} else {
+			return NUM_INPUTS + (rank - NUM_INPUTS - numHidden);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package benchmark;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import evolution.ConnectionGene;
+import evolution.Genome;
+import evolution.NodeGene;
+import evolution.NodeType;
+import neuralnetwork.Activation;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.NeuralNetworkBuilder;
+import neuralnetwork.Precision;
+import task.CarClassifyTask;
+import task.JumperTask;
+import task.Task;
+
+/**
+ * Reports how far the fitness of a network drifts when its weights are stored
+ * at reduced precision, compared to the double precision reference.
+ */
+public class PrecisionValidator {
+	
+	private static final int NUM_GENOMES = 200;
+	
+	public static void main(String[] args) throws FileNotFoundException {
+		Random rand = new Random(42);
+		report(new CarClassifyTask("car.data"), rand);
+		report(new JumperTask(123456789, 5000), rand);
+	}
+	
+	/**
+	 * Evaluate random genomes for a task at every precision and print the drift
+	 * of their training fitness from the double precision fitness
+	 * @param task	The task to evaluate the networks on
+	 * @param rand	Random number generator for making the genomes
+	 */
+	public static void report( Task task, Random rand ) {
+		int numInputs = task.getInputs().size();
+		int numOutputs = task.getOutputs().size();
+		
+		// name the nodes the same way the evolver does
+		Map<String, Integer> inputs = new HashMap<String, Integer>();
+		for( int i = 0; i < numInputs; i++ ) {
+			inputs.put(task.getInputs().get(i), i);
+		}
+		Map<String, Integer> outputs = new HashMap<String, Integer>();
+		for( int i = 0; i < numOutputs; i++ ) {
+			outputs.put(task.getOutputs().get(i), numInputs + i);
+		}
+		
+		List<Genome> genomes = new ArrayList<Genome>();
+		for( int i = 0; i < NUM_GENOMES; i++ ) {
+			int numHidden = rand.nextInt(10);
+			genomes.add(randomGenome(numInputs, numOutputs, numHidden, numInputs + numHidden * 3, rand));
+		}
+		
+		double[] reference = new double[genomes.size()];
+		for( int i = 0; i < genomes.size(); i++ ) {
+			reference[i] = fitness(task, genomes.get(i), inputs, outputs, Precision.DOUBLE);
+		}
+		
+		System.out.println(task.getClass().getSimpleName() + " (" + genomes.size() + " genomes)");
+		System.out.println("precision\tmean drift\tmax drift\tchanged");
+		for( Precision precision : Precision.values() ) {
+			double total = 0;
+			double max = 0;
+			int changed = 0;
+			for( int i = 0; i < genomes.size(); i++ ) {
+				double drift = Math.abs(fitness(task, genomes.get(i), inputs, outputs, precision) - reference[i]);
+				total += drift;
+				max = Math.max(max, drift);
+				if( drift != 0 ) {
+					changed++;
+				}
+			}
+			System.out.println(String.format("%s\t\t%.3e\t%.3e\t%d", precision, total / genomes.size(), max, changed));
+		}
+		System.out.println();
+	}
+	
+	private static double fitness( Task task, Genome genome, Map<String, Integer> inputs, Map<String, Integer> outputs, Precision precision ) {
+		NeuralNetwork network = NeuralNetworkBuilder.build(genome, inputs, outputs, Activation.EXACT, precision);
+		return task.calculateTrainFitness(network);
+	}
+	
+	/**
+	 * Make a random genome, which may have recurrent connections.  Connections
+	 * never go into an input node.
+	 */
+	static Genome randomGenome( int numInputs, int numOutputs, int numHidden, int numConnections, Random rand ) {
+		List<NodeGene> nodes = new ArrayList<NodeGene>();
+		for( int i = 0; i < numInputs; i++ ) {
+			nodes.add(new NodeGene(i, NodeType.INPUT));
+		}
+		for( int i = 0; i < numOutputs; i++ ) {
+			nodes.add(new NodeGene(numInputs + i, NodeType.OUTPUT));
+		}
+		int numNodes = numInputs + numOutputs + numHidden;
+		for( int i = numInputs + numOutputs; i < numNodes; i++ ) {
+			nodes.add(new NodeGene(i, NodeType.HIDDEN));
+		}
+		
+		List<ConnectionGene> connections = new ArrayList<ConnectionGene>();
+		for( int innov = 0; innov < numConnections; innov++ ) {
+			int from = rand.nextInt(numNodes);
+			int to = numInputs + rand.nextInt(numNodes - numInputs);
+			connections.add(new ConnectionGene(innov, rand.nextDouble() * 2 - 1, from, to));
+		}
+		return new Genome(nodes, connections);
+	}
+}
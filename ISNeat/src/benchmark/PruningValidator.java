@@ -0,0 +1,96 @@
+package benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import evolution.Genome;
+import neuralnetwork.NetworkCache;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.NeuralNetworkBuilder;
+
+/**
+ * Checks that pruned networks (see NeuralNetworkBuilder.buildPruned), and the
+ * networks made by a NetworkCache, give exactly the same outputs as full ones
+ * for random recurrent and feed-forward genomes.  They must also take the same
+ * number of updates to become steady, so a recurrent network whose only cycles
+ * can't reach an output still has to be stepped like one.
+ */
+public class PruningValidator {
+	
+	private static final int NUM_INPUTS = 6;
+	private static final int NUM_OUTPUTS = 2;
+	private static final int NUM_GENOMES = 2000;
+	private static final int NUM_STEPS = 20;
+	private static final int MAX_UPDATES = 10;
+	
+	public static void main(String[] args) {
+		Random rand = new Random(42);
+		
+		Map<String, Integer> inputs = new HashMap<String, Integer>();
+		for( int i = 0; i < NUM_INPUTS; i++ ) {
+			inputs.put("in" + i, i);
+		}
+		Map<String, Integer> outputs = new HashMap<String, Integer>();
+		for( int i = 0; i < NUM_OUTPUTS; i++ ) {
+			outputs.put("out" + i, NUM_INPUTS + i);
+		}
+		NetworkCache cache = new NetworkCache(inputs, outputs);
+		
+		int recurrent = 0;
+		for( int i = 0; i < NUM_GENOMES; i++ ) {
+			int numHidden = rand.nextInt(30);
+			Genome genome = PrecisionValidator.randomGenome(NUM_INPUTS, NUM_OUTPUTS, numHidden, NUM_INPUTS + numHidden * 2, rand);
+			// recurrent networks keep their states, so each comparison starts from a new full network
+			NeuralNetwork full = NeuralNetworkBuilder.build(genome, inputs, outputs);
+			if( full.isRecurrent() ) {
+				recurrent++;
+			}
+			check(genome, full, NeuralNetworkBuilder.buildPruned(genome, inputs, outputs), rand);
+			NeuralNetwork cached = cache.build(genome);
+			check(genome, NeuralNetworkBuilder.build(genome, inputs, outputs), cached, rand);
+			cache.release(cached);
+		}
+		System.out.println(NUM_GENOMES + " pruned networks (" + recurrent + " recurrent) gave the same outputs as full ones");
+	}
+	
+	/**
+	 * Run a full and a pruned network for a genome side by side, both with
+	 * single updates and until steady, and throw if their outputs ever differ
+	 * in any bit or they take a different number of updates
+	 */
+	private static void check( Genome genome, NeuralNetwork full, NeuralNetwork pruned, Random rand ) {
+		if( full.isRecurrent() != pruned.isRecurrent() ) {
+			throw new IllegalStateException("Pruning changed whether the network is recurrent for " + genome);
+		}
+		double[] values = new double[NUM_INPUTS];
+		double[] expected = new double[NUM_OUTPUTS];
+		double[] actual = new double[NUM_OUTPUTS];
+		for( int step = 0; step < NUM_STEPS; step++ ) {
+			for( int i = 0; i < NUM_INPUTS; i++ ) {
+				values[i] = rand.nextDouble() * 2 - 1;
+			}
+			full.setInputs(values);
+			pruned.setInputs(values);
+			if( step % 2 == 0 ) {
+				full.updateOnce();
+				pruned.updateOnce();
+			} else {
+				int fullUpdates = full.updateUntilSteady(MAX_UPDATES);
+				int prunedUpdates = pruned.updateUntilSteady(MAX_UPDATES);
+				if( fullUpdates != prunedUpdates ) {
+					throw new IllegalStateException("Pruned network took " + prunedUpdates + " updates instead of "
+							+ fullUpdates + " for " + genome);
+				}
+			}
+			full.getOutputs(expected);
+			pruned.getOutputs(actual);
+			for( int o = 0; o < NUM_OUTPUTS; o++ ) {
+				if( Double.doubleToLongBits(expected[o]) != Double.doubleToLongBits(actual[o]) ) {
+					throw new IllegalStateException("Output " + o + " differs: " + actual[o] + " != "
+							+ expected[o] + " for " + genome);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package evolution;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A copy of everything an Evolver needs to carry on evolving from the start
+ * of a generation.  Making one only copies the state, so it can be written to
+ * a file on another thread while evolution goes on.
+ *
+ * The file is a magic number and version followed by the state, written with
+ * DataOutputStream.  It is read back through a memory mapped buffer.
+ */
+final class Checkpoint {
+	
+	private static final int MAGIC = 0x49534E43;	// "ISNC"
+	private static final int VERSION = 1;
+	
+	final int populationSize;
+	final int generationNumber;
+	final int nextSpeciesId;
+	final int gensSinceImprovement;
+	final Random rand;
+	// The best genome so far, or null before the first generation
+	final Genome best;
+	final InnovationRegistry innovations;
+	final List<Species> population;
+	
+	/**
+	 * Copy an evolver's state
+	 */
+	Checkpoint( int populationSize, int generationNumber, int nextSpeciesId, int gensSinceImprovement,
+				Random rand, Genome best, InnovationRegistry innovations, List<Species> population ) {
+		this.populationSize = populationSize;
+		this.generationNumber = generationNumber;
+		this.nextSpeciesId = nextSpeciesId;
+		this.gensSinceImprovement = gensSinceImprovement;
+		this.rand = copy(rand);
+		this.best = best == null ? null : new Genome(best);
+		this.innovations = new InnovationRegistry(innovations);
+		this.population = new ArrayList<Species>(population.size());
+		for( Species s : population ) {
+			this.population.add(new Species(s));
+		}
+	}
+	
+	private Checkpoint( ByteBuffer in ) throws IOException {
+		if( in.getInt() != MAGIC ) {
+			throw new IOException("not a checkpoint");
+		}
+		int version = in.getInt();
+		if( version != VERSION ) {
+			throw new IOException("unknown checkpoint version " + version);
+		}
+		populationSize = in.getInt();
+		generationNumber = in.getInt();
+		nextSpeciesId = in.getInt();
+		gensSinceImprovement = in.getInt();
+		byte[] random = new byte[in.getInt()];
+		in.get(random);
+		rand = readRandom(random);
+		best = in.get() != 0 ? Genome.readFrom(in) : null;
+		innovations = InnovationRegistry.readFrom(in);
+		int numSpecies = in.getInt();
+		population = new ArrayList<Species>(numSpecies);
+		for( int i = 0; i < numSpecies; i++ ) {
+			population.add(Species.readFrom(in));
+		}
+	}
+	
+	/**
+	 * Write the checkpoint to a file.  It is written to a temporary file
+	 * first, and then moved over the old checkpoint, so a crash while writing
+	 * leaves the old one whole.
+	 * @param file	The checkpoint file
+	 * @throws IOException	If writing fails
+	 */
+	void write( Path file ) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary))) ) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(populationSize);
+			out.writeInt(generationNumber);
+			out.writeInt(nextSpeciesId);
+			out.writeInt(gensSinceImprovement);
+			byte[] random = writeRandom(rand);
+			out.writeInt(random.length);
+			out.write(random);
+			out.writeBoolean(best != null);
+			if( best != null ) {
+				best.writeTo(out);
+			}
+			innovations.writeTo(out);
+			out.writeInt(population.size());
+			for( Species s : population ) {
+				s.writeTo(out);
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Read a checkpoint from a file
+	 * @param file	The checkpoint file
+	 * @return		The checkpoint
+	 * @throws IOException	If the file can't be read or isn't a checkpoint
+	 */
+	static Checkpoint read( Path file ) throws IOException {
+		try( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new Checkpoint(buffer);
+		}
+	}
+	
+	// Random keeps its state private, but it is serializable
+	
+	private static Random copy( Random rand ) {
+		try {
+			return readRandom(writeRandom(rand));
+		} catch( IOException e ) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static byte[] writeRandom( Random rand ) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try( ObjectOutputStream out = new ObjectOutputStream(bytes) ) {
+			out.writeObject(rand);
+		}
+		return bytes.toByteArray();
+	}
+	
+	private static Random readRandom( byte[] bytes ) throws IOException {
+		try( ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+			@Override
+			protected Class<?> resolveClass( ObjectStreamClass desc ) throws IOException, ClassNotFoundException {
+				// nothing but the Random itself is read from the file
+				if( !desc.getName().equals(Random.class.getName()) ) {
+					throw new InvalidClassException(desc.getName(), "not part of a checkpoint");
+				}
+				return super.resolveClass(desc);
+			}
+		} ) {
+			return (Random) in.readObject();
+		} catch( ClassNotFoundException e ) {
+			throw new IOException(e);
+		}
+	}
+}
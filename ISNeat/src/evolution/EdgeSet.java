@@ -0,0 +1,94 @@
+package evolution;
+
+import java.util.Arrays;
+
+/**
+ * A set of (in, out) node pairs, for checking whether a genome already has a
+ * connection between two nodes without looking through all of its genes.
+ * Stored as an open addressing table of longs, so it can be copied with the
+ * genome in a single array copy.
+ */
+final class EdgeSet {
+	
+	// Node ids are never negative, so no pair packs to this
+	private static final long EMPTY = -1L;
+	
+	private long[] table;
+	private int size;
+	
+	EdgeSet() {
+		table = new long[16];
+		Arrays.fill(table, EMPTY);
+	}
+	
+	/**
+	 * Cloning constructor
+	 * @param other	Set to copy
+	 */
+	EdgeSet( EdgeSet other ) {
+		table = other.table.clone();
+		size = other.size;
+	}
+	
+	/**
+	 * Add a connection, if it isn't in the set already
+	 * @param in	The source node
+	 * @param out	The target node
+	 */
+	void add( int in, int out ) {
+		if( (size + 1) * 2 > table.length ) {
+			grow();
+		}
+		if( insert(table, key(in, out)) ) {
+			size++;
+		}
+	}
+	
+	/**
+	 * @param in	The source node
+	 * @param out	The target node
+	 * @return		True if the set has a connection from in to out
+	 */
+	boolean contains( int in, int out ) {
+		long key = key(in, out);
+		int mask = table.length - 1;
+		for( int i = slot(key, mask); table[i] != EMPTY; i = (i + 1) & mask ) {
+			if( table[i] == key ) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void grow() {
+		long[] old = table;
+		table = new long[old.length * 2];
+		Arrays.fill(table, EMPTY);
+		for( long key : old ) {
+			if( key != EMPTY ) {
+				insert(table, key);
+			}
+		}
+	}
+	
+	private static boolean insert( long[] table, long key ) {
+		int mask = table.length - 1;
+		int i = slot(key, mask);
+		while( table[i] != EMPTY ) {
+			if( table[i] == key ) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		table[i] = key;
+		return true;
+	}
+	
+	private static long key( int in, int out ) {
+		return ((long) in << 32) | (out & 0xffffffffL);
+	}
+	
+	private static int slot( long key, int mask ) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+}
@@ -1,18 +1,31 @@
 package evolution;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 
+import neuralnetwork.Activation;
 import neuralnetwork.NeuralNetwork;
-import neuralnetwork.NeuralNetworkBuilder;
+import neuralnetwork.NetworkCache;
+import neuralnetwork.Precision;
 import task.Task;
 
 /**
@@ -33,8 +46,8 @@ public class Evolver {
 	public static final double MUTATION_SCALAR = 0.05;
 	public static final double RANDOM_RESET_MUTATION_CHANCE = 0.1;
 	
-	private int nextInnovNum;
-	private int nextNodeNum;
+	// Hands out innovation numbers and node ids for structural mutations
+	private final InnovationRegistry innovations;
 	
 	private final int populationSize;
 	private int nextSpeciesId = 0;
@@ -45,13 +58,93 @@ public class Evolver {
 	// The mapping from task inpout/output names to node id's.
 	private Map<String, Integer> inputNodeMap;
 	private Map<String, Integer> outputNodeMap;
+	// Builds the networks, reusing the structure of genomes that only had their weights changed
+	private NetworkCache networkCache;
 	private List<NodeGene> requiredNodes;
 	private Task task;
+	// Runs the fitness evaluations, which are independent of each other
+	private final ExecutorService executor;
 	
+	// The evolution loop's state, which is saved in checkpoints
+	private Genome best = null;
+	private Random rand = new Random();
+	private int gensSinceImprovement = 0;
+	
+	// Where to save checkpoints, or null for none
+	private Path checkpointFile = null;
+	private int checkpointInterval;
+	// The generation of the last checkpoint, which a resumed evolver starts from
+	private int lastCheckpointGeneration = -1;
+	// Writes the checkpoints in the background, one at a time, while checkpointing
+	private ExecutorService checkpointWriter = null;
+	private Future<?> lastCheckpoint = null;
+	
+	// Exchanges genomes with other populations, or null if this one evolves on its own
+	private Migration migration = null;
+	private int migrationInterval;
+	private int migrantCount;
+	// True for an evolver resumed from a checkpoint, whose innovation registry is its own
+	private boolean resumed = false;
+	
+	/**
+	 * Make an evolver that evaluates fitnesses on the common fork-join pool
+	 * @param task				The task to evolve networks for
+	 * @param populationSize	The number of genomes in each generation
+	 */
 	public Evolver(Task task, int populationSize) {
+		this(task, populationSize, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Make an evolver that remembers every structural change for the whole run
+	 * @param task				The task to evolve networks for, which must be thread safe (see Task)
+	 * @param populationSize	The number of genomes in each generation
+	 * @param executor			Runs the fitness evaluations, such as a fork-join pool or a fixed thread pool
+	 */
+	public Evolver(Task task, int populationSize, ExecutorService executor) {
+		this(task, populationSize, executor, InnovationRegistry.Policy.UNBOUNDED, 0);
+	}
+	
+	/**
+	 * 
+	 * @param task				The task to evolve networks for, which must be thread safe (see Task)
+	 * @param populationSize	The number of genomes in each generation
+	 * @param executor			Runs the fitness evaluations, such as a fork-join pool or a fixed thread pool
+	 * @param innovationPolicy	How long structural changes are remembered, so that the same change gets the same innovation number
+	 * @param historySize		The number of changes remembered by the BOUNDED policy
+	 */
+	public Evolver(Task task, int populationSize, ExecutorService executor, InnovationRegistry.Policy innovationPolicy, int historySize) {
+		this(task, populationSize, executor, new InnovationRegistry(task.getInputs().size() + task.getOutputs().size(), innovationPolicy, historySize));
+	}
+	
+	/**
+	 * 
+	 * @param task				The task to evolve networks for, which must be thread safe (see Task)
+	 * @param populationSize	The number of genomes in each generation
+	 * @param executor			Runs the fitness evaluations, such as a fork-join pool or a fixed thread pool
+	 * @param innovations		Hands out innovation numbers and node ids, starting after the task's inputs and outputs
+	 */
+	public Evolver(Task task, int populationSize, ExecutorService executor, InnovationRegistry innovations) {
+		this(task, populationSize, executor, innovations, 0);
+		
+		// Initialize the population.
+		List<Genome> initial = new LinkedList<Genome>();
+		for( int i = 0; i < populationSize; i++ ) {
+			// start with no connections, bare minimum!
+			initial.add( new Genome(requiredNodes, null) );
+		}
+		population = speciate( new LinkedList<Species>(), initial, new HashMap<Genome, Species>() );
+	}
+	
+	/**
+	 * Set up the task's nodes, without making a population
+	 */
+	private Evolver(Task task, int populationSize, ExecutorService executor, InnovationRegistry innovations, int generationNumber) {
 		this.populationSize = populationSize;
+		this.executor = executor;
+		this.innovations = innovations;
 		
-		generationNumber = 0;
+		this.generationNumber = generationNumber;
 		
 		this.task = task;
 		
@@ -75,48 +168,233 @@ public class Evolver {
 			requiredNodes.add( new NodeGene(outputId, NodeType.OUTPUT) );
 		}
 		
-		nextNodeNum = outputArray.length + inputArray.length;
-		nextInnovNum = 0;
+		networkCache = new NetworkCache(inputNodeMap, outputNodeMap, Activation.EXACT, Precision.DOUBLE, parallelism(executor));
+	}
+	
+	/**
+	 * @return	The most fitness evaluations the executor can run at once
+	 */
+	private static int parallelism( ExecutorService executor ) {
+		if( executor instanceof ForkJoinPool ) {
+			return ((ForkJoinPool) executor).getParallelism();
+		} else if( executor instanceof ThreadPoolExecutor && ((ThreadPoolExecutor) executor).getMaximumPoolSize() < Integer.MAX_VALUE ) {
+			// a fixed thread pool, rather than a cached one that grows without limit
+			return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
 		
-		// Initialize the population.
-		population = new LinkedList<Species>();
-		for( int i = 0; i < populationSize; i++ ) {
-			// start with no connections, bare minimum!
-			addToPopulation( new Genome(requiredNodes, null) );
+	/**
+	 * Make an evolver that carries on from a checkpoint (see setCheckpoint).
+	 * It gets a copy of its innovation registry back, rather than a registry
+	 * shared with other populations, so an island carries on as a single
+	 * population and can't exchange genomes any more (see setMigration).
+	 * 
+	 * @param task		The task the checkpointed evolver was evolving networks for
+	 * @param executor	Runs the fitness evaluations
+	 * @param file		The checkpoint file
+	 * @return			The evolver, ready to carry on with evolve
+	 * @throws IOException	If the file can't be read or isn't a checkpoint
+	 */
+	public static Evolver resume(Task task, ExecutorService executor, Path file) throws IOException {
+		Checkpoint checkpoint = Checkpoint.read(file);
+		Evolver evolver = new Evolver(task, checkpoint.populationSize, executor, checkpoint.innovations, checkpoint.generationNumber);
+		evolver.nextSpeciesId = checkpoint.nextSpeciesId;
+		evolver.gensSinceImprovement = checkpoint.gensSinceImprovement;
+		evolver.rand = checkpoint.rand;
+		evolver.best = checkpoint.best;
+		evolver.population = new LinkedList<Species>(checkpoint.population);
+		evolver.resumed = true;
+		// the file already holds this generation
+		evolver.lastCheckpointGeneration = checkpoint.generationNumber;
+		return evolver;
+	}
+	
+	/**
+	 * Save the whole state of evolution to a file every few generations, for
+	 * resume to carry on from.  The state is copied at the start of a
+	 * generation, and written on a background thread while the generation
+	 * runs.  If a write is still going when the next one is due, evolution
+	 * waits for it.  A write that fails is reported, and evolution goes on
+	 * with the old checkpoint left in place until the next one.
+	 * 
+	 * @param file		The checkpoint file, or null to stop checkpointing
+	 * @param interval	The number of generations between checkpoints
+	 * @throws IllegalArgumentException	If the interval isn't positive
+	 */
+	public void setCheckpoint( Path file, int interval ) {
+		if( file != null && interval <= 0 ) {
+			throw new IllegalArgumentException("checkpoint interval must be positive, not " + interval);
+		}
+		this.checkpointFile = file;
+		this.checkpointInterval = interval;
+		if( file == null ) {
+			stopCheckpointing();
 		}
 	}
 	
-	public Genome evolve() {
-		Genome best = null;
-		Random rand = new Random();
-		int gensSinceImprovement = 0;
-		List<ConnectionGene> latestConnections = new LinkedList<ConnectionGene>();
+	/**
+	 * Copy the state on this thread, and write it on the checkpoint writer
+	 */
+	private void checkpoint() {
+		awaitCheckpoint();
+		if( checkpointWriter == null ) {
+			checkpointWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "checkpoint writer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		final Checkpoint checkpoint = new Checkpoint(populationSize, generationNumber, nextSpeciesId, gensSinceImprovement,
+													 rand, best, innovations, population);
+		final Path file = checkpointFile;
+		lastCheckpointGeneration = generationNumber;
+		lastCheckpoint = checkpointWriter.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					checkpoint.write(file);
+				} catch( IOException e ) {
+					// the old checkpoint is still whole, and the next one may work
+					System.err.println("Checkpoint of generation " + checkpoint.generationNumber + " failed: " + e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Wait for the checkpoint being written, if there is one
+	 */
+	private void awaitCheckpoint() {
+		if( lastCheckpoint == null ) {
+			return;
+		}
+		try {
+			lastCheckpoint.get();
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		} catch( ExecutionException e ) {
+			System.err.println("Checkpoint failed: " + e.getCause());
+		}
+		lastCheckpoint = null;
+	}
+	
+	/**
+	 * Finish the checkpoint being written, and let the writer's thread go
+	 */
+	private void stopCheckpointing() {
+		awaitCheckpoint();
+		if( checkpointWriter != null ) {
+			checkpointWriter.shutdown();
+			checkpointWriter = null;
+		}
+	}
+	
+	/**
+	 * Exchange genomes with other populations every few generations.  The
+	 * best genomes are sent after their fitnesses are measured, and the
+	 * genomes received join the next generation without being mutated.
+	 * The populations have to share their innovation numbers, so an evolver
+	 * resumed from a checkpoint, which hands out its own, can't migrate.
+	 * 
+	 * @param migration		Exchanges the genomes, or null to stop exchanging them
+	 * @param interval		The number of generations between exchanges
+	 * @param count			The number of genomes to send each time
+	 * @throws IllegalStateException	If this evolver was resumed from a checkpoint
+	 */
+	public void setMigration( Migration migration, int interval, int count ) {
+		if( migration != null && resumed ) {
+			throw new IllegalStateException("a resumed evolver's innovation numbers would collide with the other populations'");
+		}
+		this.migration = migration;
+		this.migrationInterval = interval;
+		this.migrantCount = count;
+	}
+	
+	/**
+	 * Run jobs on the executor and wait for them all to finish
+	 * @param jobs	The jobs to run
+	 */
+	private <T> void runAll( List<? extends Callable<T>> jobs ) {
+		try {
+			// passing on anything thrown by a job
+			for( Future<T> result : executor.invokeAll(jobs) ) {
+				result.get();
+			}
+		} catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch( ExecutionException e ) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Measures one genome's fitness, on whichever thread the executor runs it
+	 */
+	private class Evaluation implements Callable<Evaluation> {
+		private final Genome genome;
+		private double fitness;
+		// True if the network is good enough on the test set to stop evolving
+		private boolean solved;
 		
+		Evaluation( Genome genome ) {
+			this.genome = genome;
+		}
+		
+		@Override
+		public Evaluation call() {
+			// build the organism's neural network
+			NeuralNetwork network = networkCache.build(genome);
+			// test the network on the task
+			fitness = task.calculateTrainFitness(network);
+			solved = fitness > 0.85 && task.calculateTestFitness(network) > 0.95;
+			networkCache.release(network);
+			return this;
+		}
+	}
+	
+	public Genome evolve() {
 		while( true ) {
 			
 			try {Thread.sleep(500);} catch (InterruptedException e) {}	// TODO: debug
 			
+			if( checkpointFile != null && generationNumber % checkpointInterval == 0 && generationNumber != lastCheckpointGeneration ) {
+				checkpoint();
+			}
+			
 			generationNumber++;
+			innovations.startGeneration();
 			System.out.println("Generation " + generationNumber + " starting!  " + population.size() + " species.");	// TODO: debug
 //			System.out.println("\t" + task.getInputs() + " " + task.getOutputs());
 			List<Species> nextGenPopulation = new LinkedList<Species>();
 			
-			// evaluate fitnesses
+			// evaluate fitnesses on the executor
+			List<Evaluation> evaluations = new ArrayList<Evaluation>(populationSize());
+			for( Species s : population ) {
+				for( Genome g : s.getMembers() ) {
+					evaluations.add(new Evaluation(g));
+				}
+			}
+			runAll(evaluations);
+			
+			// then go through the results in the same order as the genomes, since no fitness has changed yet
 			boolean improved = false;
 			double totalFitness = 0;
+			Iterator<Evaluation> evaluation = evaluations.iterator();
 			for( Species s : population ) {
-				for( Genome g : s.getOrganisms() ) {
-					// build the organism's neural network
-					NeuralNetwork network = NeuralNetworkBuilder.build(g, inputNodeMap, outputNodeMap);
-					// test the network on the task
-					double fitness = task.calculateTrainFitness(network);
-					if( fitness > 0.85 ) {
-						if( task.calculateTestFitness(network) > 0.95 ) {
-							return g;
-						}
+				for( Genome g : s.getMembers() ) {
+					Evaluation e = evaluation.next();
+					if( e.solved ) {
+						stopCheckpointing();
+						return g;
 					}
+					double fitness = e.fitness;
 					// update the fitness value
-					g.setIndividualFitness(fitness);
+					s.setFitness(g, fitness);
 					
 					if( best == null || g.getIndividualFitness() > best.getIndividualFitness() ) {
 						best = new Genome(g);
@@ -138,6 +416,12 @@ public class Evolver {
 			double averageFitness = totalFitness / populationSize();
 			System.out.println("\tBest Fitness = " + best.getIndividualFitness() + "!");	// TODO: debug
 			
+			// trade the best genomes with the other populations while their fitnesses are known
+			List<Genome> immigrants = new ArrayList<Genome>();
+			if( migration != null && generationNumber % migrationInterval == 0 ) {
+				immigrants = migration.migrate(emigrants());
+			}
+			
 			// kill off the weak species and get the total shared fitness
 			totalFitness = 0;
 			if( population.size() > 2 ) {
@@ -172,6 +456,8 @@ public class Evolver {
 			// Kill off the weak genomes of each remaining species and perform crossover
 			List<Genome> newbies = new LinkedList<Genome>();
 			List<Genome> champs = new LinkedList<Genome>();
+			// the species each child came from, which it is placed back into if it still fits
+			Map<Genome, Species> parentSpecies = new HashMap<Genome, Species>();
 			ListIterator<Species> ngpop = nextGenPopulation.listIterator();
 			while( ngpop.hasNext() ) {
 				Species s = ngpop.next();
@@ -187,12 +473,13 @@ public class Evolver {
 				}
 
 				// Best in the species gets to carry on unaltered
-				champs.add(new Genome(s.getBestGenome()));
+				Genome champ = new Genome(s.getBestGenome());
+				champs.add(champ);
+				parentSpecies.put(champ, s);
 				
 				// Do crossover if there is more than one member of the species remaining
 				if( s.size() >= 1 ) {
-					List<Genome> parents = new LinkedList<Genome>(s.getOrganisms());
-					parents.sort(Genome.BY_INDIVIDUAL_FITNESS());
+					List<Genome> parents = new ArrayList<Genome>(s.getOrganisms());
 					
 					// mate every other organism with a random member of the species better than itself
 					Genome parentA, parentB;
@@ -215,7 +502,9 @@ public class Evolver {
 								}
 							}
 						}
-						newbies.add(crossover(parentA, parentB));
+						Genome child = crossover(parentA, parentB);
+						newbies.add(child);
+						parentSpecies.put(child, s);
 					}
 				}
 				s.clear();
@@ -228,26 +517,17 @@ public class Evolver {
 			for( Genome g : newbies ) {
 				// mutate weights
 				if( rand.nextDouble() < WEIGHT_MUTATION_CHANCE ) {
-					g.mutateWeights( MUTATION_SCALAR, RANDOM_RESET_MUTATION_CHANCE );
+					g.mutateWeights( MUTATION_SCALAR, RANDOM_RESET_MUTATION_CHANCE, rand );
 				}
 				// structural mutations
 				if( rand.nextDouble() < CONNECTION_MUTATION_CHANCE ) {
 					// mutate connections
-					ConnectionGene change = g.mutateAddConnection(nextInnovNum, latestConnections);
-					if( change != null ) {
-						nextInnovNum++;
-						latestConnections.add(change);
-					}
+					g.mutateAddConnection(innovations, rand);
 					System.out.print("-");	// TODO: debug
 				}
 				if( rand.nextDouble() < NODE_MUTATION_CHANCE ) {
 					// mutate nodes
-					List<ConnectionGene> changes = g.mutateAddNode(nextInnovNum, nextNodeNum, latestConnections);
-					if( changes != null ) {
-						nextInnovNum += 2;
-						latestConnections.addAll(changes);
-						nextNodeNum++;
-					}
+					g.mutateAddNode(innovations, rand);
 					System.out.print("=");	// TODO: debug
 				}
 			}
@@ -255,7 +535,8 @@ public class Evolver {
 			
 			// add the newbies to the population
 			newbies.addAll(champs);
-			population = speciate(nextGenPopulation, newbies);
+			newbies.addAll(immigrants);
+			population = speciate(nextGenPopulation, newbies, parentSpecies);
 		}
 	}
 	
@@ -271,65 +552,100 @@ public class Evolver {
 			equalFits = true;
 		}
 		
-		// get each parent's genes
-		Map<Integer, ConnectionGene> aGenes = parentA.getConnectionMap();
-		Map<Integer, ConnectionGene> bGenes = parentB.getConnectionMap();
-		// get the innovation number of every possible gene in either parent
-		Set<Integer> allInnovationNumbers = new HashSet<Integer>(aGenes.keySet());
-		allInnovationNumbers.addAll(bGenes.keySet());
+		// the child starts with the required nodes, and gets the others as its genes use them
+		int aSize = parentA.getNumConnections();
+		int bSize = parentB.getNumConnections();
+		Genome child = new Genome(requiredNodes, equalFits ? aSize + bSize : aSize);
+		BitSet childNodes = new BitSet(innovations.getNextNodeId());
+		for( NodeGene n : requiredNodes ) {
+			childNodes.set(n.getId());
+		}
 		
-		// get all of the nodes in either parent
-		Map<Integer, NodeGene> allNodes = parentA.getNodeMap();
-		allNodes.putAll(parentB.getNodeMap());
+		// walk through both parents' genes in innovation order, writing the child's genes in the same order
+		int a = 0;
+		int b = 0;
+		while( a < aSize || b < bSize ) {
+			int aInnov = a < aSize ? parentA.getInnov(a) : Integer.MAX_VALUE;
+			int bInnov = b < bSize ? parentB.getInnov(b) : Integer.MAX_VALUE;
+			int innov = Math.min(aInnov, bInnov);
 		
-		// the set for all of the child's nodes
-		Set<NodeGene> childNodes = new HashSet<NodeGene>();
-		childNodes.addAll(requiredNodes);
-		List<ConnectionGene> childGenes = new LinkedList<ConnectionGene>();
-		for( int i : allInnovationNumbers ) {
-			ConnectionGene geneToPass = null;
-			if( aGenes.containsKey(i) && bGenes.containsKey(i) ) {
+			// a parent with several genes for this innovation passes on its last one
+			int aGene = -1;
+			if( aInnov == innov ) {
+				while( a + 1 < aSize && parentA.getInnov(a + 1) == innov ) {
+					a++;
+				}
+				aGene = a++;
+			}
+			int bGene = -1;
+			if( bInnov == innov ) {
+				while( b + 1 < bSize && parentB.getInnov(b + 1) == innov ) {
+					b++;
+				}
+				bGene = b++;
+			}
+			
+			Genome parent = null;
+			int gene = -1;
+			if( aGene >= 0 && bGene >= 0 ) {
 				// both parents have this gene, add randomly from either parent
-				if( Math.random() < 0.5 ) {
-					geneToPass = aGenes.get(i);
+				if( rand.nextDouble() < 0.5 ) {
+					parent = parentA;
+					gene = aGene;
 				} else {
-					geneToPass = bGenes.get(i);
+					parent = parentB;
+					gene = bGene;
 				}
 			} else {
 				// only one parent has this connection (disjoint/excess)
-				if( aGenes.containsKey(i) ) {
+				if( aGene >= 0 ) {
 					// add this gene to child from parent A since A is more fit
-					geneToPass = aGenes.get(i);
+					parent = parentA;
+					gene = aGene;
 				} else if( equalFits ) {
 					// add this gene to child from parent B, since fitnesses are equal
-					geneToPass = bGenes.get(i);
+					parent = parentB;
+					gene = bGene;
 				} else {
 					// parent B has the gene, but parent B sucks, so don't add it.
 				}
 			}
 			// Add the new gene & corresponding nodes
-			if( geneToPass != null ) {
-				childNodes.add(allNodes.get(geneToPass.getIn()));
-				childNodes.add(allNodes.get(geneToPass.getOut()));
-				// chance to enable any disabled genes
-				if( !geneToPass.isEnabled() && (Math.random() < ENABLE_GENE_CHANCE) ) {
-					geneToPass.enable();
+			if( parent != null ) {
+				int in = parent.getIn(gene);
+				int out = parent.getOut(gene);
+				// the required nodes are the only inputs and outputs, so any other node is hidden
+				if( !childNodes.get(in) ) {
+					childNodes.set(in);
+					child.addNode(in, NodeType.HIDDEN);
+				}
+				if( !childNodes.get(out) ) {
+					childNodes.set(out);
+					child.addNode(out, NodeType.HIDDEN);
 				}
-				childGenes.add(geneToPass);
+				// chance to enable any disabled genes
+				boolean enabled = parent.isEnabled(gene) || (rand.nextDouble() < ENABLE_GENE_CHANCE);
+				child.addConnection(innov, in, out, parent.getWeight(gene), enabled);
 			}
 		}
 		
-		return new Genome(new LinkedList<NodeGene>(childNodes), childGenes);
+		return child;
 	}
 	
-	private void addToPopulation(Genome genome) {
+	/**
+	 * @return	Copies of the population's best genomes to send to the other populations
+	 */
+	private List<Genome> emigrants() {
+		List<Genome> genomes = new ArrayList<Genome>(populationSize());
 		for( Species s : population ) {
-			if( s.getRepresentative().calculateDistance(genome, Evolver.C1, Evolver.C2, Evolver.C3) < Evolver.COMPATABILITY_THRESHOLD ) {
-				s.add(genome);
-				return;
-			}
+			genomes.addAll(s.getMembers());
+		}
+		genomes.sort(Genome.BY_INDIVIDUAL_FITNESS());
+		List<Genome> emigrants = new ArrayList<Genome>(migrantCount);
+		for( Genome g : genomes.subList(0, Math.min(migrantCount, genomes.size())) ) {
+			emigrants.add(new Genome(g));
 		}
-		population.add(new Species(generationNumber, nextSpeciesId++, new LinkedList<Genome>(Arrays.asList(genome))));
+		return emigrants;
 	}
 	
 	private int populationSize() {
@@ -375,20 +691,64 @@ public class Evolver {
 		population = newPopulation;
 	}
 	
-	private List<Species> speciate( List<Species> species, List<Genome> organisms ) {
-		for( Genome genome : organisms ) {
-			boolean hasSpecies = false;
-			// try fitting it into one of the existing species
-			for( Species s : species ) {
-				if( s.getRepresentative().calculateDistance(genome, Evolver.C1, Evolver.C2, Evolver.C3) < Evolver.COMPATABILITY_THRESHOLD ) {
-					s.add(genome);
-					hasSpecies = true;
-					break;
+	/**
+	 * Put each genome into its parent's species if it is still compatible with
+	 * it, or else the first species it is compatible with, or into a new
+	 * species if there isn't one.  Comparing the genomes with the species that
+	 * already exist is done in parallel, since their representatives don't
+	 * change.  Then the genomes are placed one at a time in order, so the new
+	 * species are founded exactly as they would be doing it all sequentially.
+	 * 
+	 * @param species		The existing species, which new species are added to
+	 * @param organisms		The genomes to place
+	 * @param parentSpecies	The species each genome's parent came from, for the genomes that have one
+	 * @return				The species, without any that ended up empty
+	 */
+	private List<Species> speciate( List<Species> species, List<Genome> organisms, Map<Genome, Species> parentSpecies ) {
+		final SpeciesIndex index = new SpeciesIndex(species);
+		List<Species> existing = new ArrayList<Species>(species);
+		List<Genome> genomes = new ArrayList<Genome>(organisms);
+		Map<Species, Integer> positions = new HashMap<Species, Integer>();
+		for( int i = 0; i < existing.size(); i++ ) {
+			positions.put(existing.get(i), i);
+		}
+		
+		// find an existing species for every genome
+		final int[] fits = new int[genomes.size()];
+		List<Callable<Void>> comparisons = new ArrayList<Callable<Void>>(genomes.size());
+		for( int i = 0; i < genomes.size(); i++ ) {
+			final int position = i;
+			final Genome genome = genomes.get(i);
+			Integer parent = positions.get(parentSpecies.get(genome));
+			final int preferred = parent != null ? parent : -1;
+			comparisons.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					fits[position] = index.find(genome, preferred);
+					return null;
 				}
+			});
+		}
+		runAll(comparisons);
+		
+		SpeciesIndex foundedIndex = new SpeciesIndex();
+		List<Species> founded = new ArrayList<Species>();
+		for( int i = 0; i < genomes.size(); i++ ) {
+			Genome genome = genomes.get(i);
+			if( fits[i] >= 0 ) {
+				existing.get(fits[i]).add(genome);
+				continue;
 			}
-			// make new species
-			if( !hasSpecies ) {
-				species.add(new Species(generationNumber, nextSpeciesId++, new LinkedList<Genome>(Arrays.asList(genome))));
+			// try fitting it into one of the species founded by earlier genomes
+			int fit = foundedIndex.find(genome, -1);
+			if( fit >= 0 ) {
+				founded.get(fit).add(genome);
+			} else {
+				// make new species
+				Species s = new Species(generationNumber, nextSpeciesId++, Arrays.asList(genome));
+				founded.add(s);
+				foundedIndex.add(s.getRepresentative());
+				species.add(s);
 			}
 		}
 		
@@ -1,17 +1,41 @@
 package evolution;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
+/**
+ * A genome, with its genes stored in parallel arrays instead of as gene
+ * objects.  The connection genes are kept in innovation order, and a set of
+ * the connections' end points makes checking for an existing connection a
+ * single lookup.  Copying a genome is just a few array copies.
+ */
 public class Genome {
 	
-	private List<NodeGene> nodes;
-	private List<ConnectionGene> connections;
+	private static final NodeType[] NODE_TYPES = NodeType.values();
+	
+	// Node genes
+	private int[] nodeIds;
+	private NodeType[] nodeTypes;
+	private int numNodes;
+	
+	// Connection genes, sorted by innovation number
+	private int[] innovs;
+	private int[] ins;
+	private int[] outs;
+	private double[] weights;
+	private BitSet enabled;
+	private int numConnections;
+	
+	// The (in, out) pair of every connection gene, enabled or not
+	private EdgeSet edges;
 	
 	private double fitness = 0;
 	private double sharedFitness = 0;
@@ -21,49 +45,77 @@ public class Genome {
 	 * @param genome Genome to clone
 	 */
 	public Genome( Genome genome ) {
-		this(genome.getNodes(), genome.getConnections());
+		this.nodeIds = Arrays.copyOf(genome.nodeIds, genome.numNodes);
+		this.nodeTypes = Arrays.copyOf(genome.nodeTypes, genome.numNodes);
+		this.numNodes = genome.numNodes;
+		this.innovs = Arrays.copyOf(genome.innovs, genome.numConnections);
+		this.ins = Arrays.copyOf(genome.ins, genome.numConnections);
+		this.outs = Arrays.copyOf(genome.outs, genome.numConnections);
+		this.weights = Arrays.copyOf(genome.weights, genome.numConnections);
+		this.enabled = (BitSet) genome.enabled.clone();
+		this.numConnections = genome.numConnections;
+		this.edges = new EdgeSet(genome.edges);
 		this.fitness = genome.getIndividualFitness();
 	}
 	
 	/**
 	 * Constructor
-	 * @param nodes Nodes to clone
-	 * @param connections Connections to clone
+	 * @param nodes Nodes to copy
+	 * @param connections Connections to copy
 	 */
 	public Genome( List<NodeGene> nodes, List<ConnectionGene> connections ) {
-		// Deep copy of the nodes
-		this.nodes = new ArrayList<NodeGene>(nodes.size());
-		for( NodeGene n : nodes ) {
-			this.nodes.add(n.clone());
-		}
-		
+		this(nodes, connections == null ? 0 : connections.size());
 		if( connections != null ) {
-			// Deep copy of the connections
-			this.connections = new ArrayList<ConnectionGene>(connections.size());
-			for( ConnectionGene c : connections ) {
-				this.connections.add(c.clone());
+			List<ConnectionGene> sorted = new ArrayList<ConnectionGene>(connections);
+			// keep the genes in innovation order, see calculateDistance.  The sort is stable,
+			// so genes with the same innovation number stay in the order they were given.
+			sorted.sort(ConnectionGene.BY_INNOVATION_NUMBER());
+			for( ConnectionGene c : sorted ) {
+				addConnection(c.getInnov(), c.getIn(), c.getOut(), c.getWeight(), c.isEnabled());
 			}
-		} else {
-			this.connections = new ArrayList<ConnectionGene>();
 		}
 	}
 	
+	/**
+	 * Make a genome with the given nodes and no connections yet
+	 * @param nodes					Nodes to copy
+	 * @param connectionCapacity	The number of connections to make room for
+	 */
+	Genome( List<NodeGene> nodes, int connectionCapacity ) {
+		numNodes = nodes.size();
+		nodeIds = new int[numNodes];
+		nodeTypes = new NodeType[numNodes];
+		int n = 0;
+		for( NodeGene node : nodes ) {
+			nodeIds[n] = node.getId();
+			nodeTypes[n] = node.getType();
+			n++;
+		}
+		
+		innovs = new int[connectionCapacity];
+		ins = new int[connectionCapacity];
+		outs = new int[connectionCapacity];
+		weights = new double[connectionCapacity];
+		enabled = new BitSet(connectionCapacity);
+		edges = new EdgeSet();
+	}
+	
 	/**
 	 * Mutate this genome's connection weights.
 	 * 
 	 * @param mutationScalar Scalar for the magnitude of any weight adjustment 
 	 * @param randomResetChance The chance to simply assign a new random weight
+	 * @param rand The random number generator to draw from
 	 */
-	public void mutateWeights( double mutationScalar, double randomResetChance ) {
-		Random rand = new Random();
-		for( ConnectionGene c : connections ) {
+	public void mutateWeights( double mutationScalar, double randomResetChance, Random rand ) {
+		for( int i = 0; i < numConnections; i++ ) {
 			if( rand.nextDouble() < randomResetChance ) {
 				// mutate by setting weight randomly
-				c.setWeight(randomWeight());
+				weights[i] = clamp(randomWeight(rand));
 			} else {
 				// mutate this connection by a normally distributed amount (mean = 0)
 				double alteration = mutationScalar * rand.nextGaussian();
-				c.setWeight(c.getWeight() + alteration);
+				weights[i] = clamp(weights[i] + alteration);
 			}
 		}
 	}
@@ -71,52 +123,39 @@ public class Genome {
 	/**
 	 * Perform a mutation to add a connection.
 	 * 
-	 * @param innovationNumber The id of the next connection gene
-	 * @param latestConnections The list of new connections from this generation's mutations
-	 * @return The connection added by this mutation, or null if it already existed
+	 * @param innovations Gives the connection its innovation number
+	 * @param rand The random number generator to draw from
+	 * @return True if a connection was added, false if it already existed
 	 */
-	public ConnectionGene mutateAddConnection(int innovationNumber, final List<ConnectionGene> latestConnections ) {
-		Random rand = new Random();
-		List<Integer> toOptions = new LinkedList<Integer>();
-		List<Integer> fromOptions = new LinkedList<Integer>();
-		for( NodeGene n : nodes ) {
-			switch(n.getType()) {
+	public boolean mutateAddConnection( InnovationRegistry innovations, Random rand ) {
+		int[] toOptions = new int[numNodes];
+		int[] fromOptions = new int[numNodes];
+		int numTo = 0;
+		int numFrom = 0;
+		for( int n = 0; n < numNodes; n++ ) {
+			switch(nodeTypes[n]) {
 			case INPUT:
-				fromOptions.add(n.getId());
+				fromOptions[numFrom++] = nodeIds[n];
 				break;
 			case OUTPUT:
 			case HIDDEN:
-				toOptions.add(n.getId());
-				fromOptions.add(n.getId());
+				toOptions[numTo++] = nodeIds[n];
+				fromOptions[numFrom++] = nodeIds[n];
 				break;
 			}
 		}
-		int to = toOptions.get(rand.nextInt(toOptions.size()));
-		int from = fromOptions.get(rand.nextInt(fromOptions.size()));
-		ConnectionGene newConnection = new ConnectionGene(innovationNumber, randomWeight(), from, to);
+		int to = toOptions[rand.nextInt(numTo)];
+		int from = fromOptions[rand.nextInt(numFrom)];
 		
 		// check to make sure this connection doesn't already exist in the network.
-		for( ConnectionGene c : connections ) {
-			if( c.getIn() == from && c.getOut() == to ) {
-				// connection already exists in this very genome, don't make a new one.
-				return null;
-			}
-		}
-		
-		for( ConnectionGene c : latestConnections ) {
-			if( c.getIn() == from && c.getOut() == to ) {
-				// forget about that newly created connection, use the existing one with a random weight
-				newConnection = c.clone();
-				newConnection.setWeight(randomWeight());
-				connections.add(newConnection);
-				
-				// return null to signify a new connection was not made
-				return null;
-			}
+		if( edges.contains(from, to) ) {
+			// connection already exists in this very genome, don't make a new one.
+			return false;
 		}
 		
-		connections.add(newConnection);
-		return newConnection;
+		// the same connection made in another genome gets the same innovation number
+		addConnection(innovations.connection(from, to), from, to, randomWeight(rand), true);
+		return true;
 	}
 	
 	/**
@@ -125,172 +164,361 @@ public class Genome {
 	 * from the old starting point to the new node, and from the new node to
 	 * the old ending point.
 	 * 
-	 * @param innovationNumber The next connection's innovation number
-	 * @param nextNodeNumber The next node ID
-	 * @param latestConnections The list of new connections from this generation's mutations 
-	 * @return All of the connections added to the genome during this operation
+	 * @param innovations Gives the node its id and the connections their innovation numbers
+	 * @param rand The random number generator to draw from
+	 * @return True if a node was added, false if there was no connection to split
 	 */
-	public List<ConnectionGene> mutateAddNode(int innovationNumber, int nextNodeNumber, List<ConnectionGene> latestConnections) {
-		if( connections.size() <= 0 ) {
-			return null;
+	public boolean mutateAddNode( InnovationRegistry innovations, Random rand ) {
+		if( numConnections <= 0 ) {
+			return false;
 		} else {
 			// choose a connection to split
-			ConnectionGene disableMe = connections.get(new Random().nextInt(connections.size()));
-			disableMe.disable();
+			int disableMe = rand.nextInt(numConnections);
+			enabled.clear(disableMe);
 			
 			// make the new stuff
-			int from = disableMe.getIn();
-			int to = disableMe.getOut();
-			NodeGene newNode = new NodeGene(nextNodeNumber, NodeType.HIDDEN);
-			ConnectionGene firstConnection  = new ConnectionGene(innovationNumber,
-																 1.0,
-																 from,
-																 newNode.getId());
-			ConnectionGene secondConnection = new ConnectionGene(innovationNumber+1,
-																 disableMe.getWeight(),
-																 newNode.getId(),
-																 to);
+			int from = ins[disableMe];
+			int to = outs[disableMe];
+			double weight = weights[disableMe];
 			
-			// Check to make sure this hasn't been done before for innovation tracking purposes
-			for( ConnectionGene c1 : latestConnections ) {
-				if( c1.getIn() == from ) {
-					for( ConnectionGene c2 : latestConnections ) {
-						if( c1.getOut() == c2.getIn() && c2.getOut() == to ) {
-							// This same node was added previously, duplicate everything instead.
-							newNode = new NodeGene(c1.getOut(), NodeType.HIDDEN);
-							nodes.add(newNode);
-							
-							firstConnection = c1.clone();
-							firstConnection.setWeight(1.0);
-							connections.add(firstConnection);
-							
-							secondConnection = c2.clone();
-							secondConnection.setWeight(disableMe.getWeight());
-							connections.add(secondConnection);
-							
-							// Return null to signify that new connections and a new node were not made
-							return null;
-						}
-					}
-				}
-			}
+			// splitting the same connection in another genome gives the same node and innovation numbers
+			InnovationRegistry.Split split = innovations.split(from, to);
 			
-			// add the new stuff and return the new connections
-			nodes.add(newNode);
-			connections.add(firstConnection);
-			connections.add(secondConnection);
-			return Arrays.asList(firstConnection, secondConnection);
+			// add the new stuff
+			addNode(split.getNode(), NodeType.HIDDEN);
+			addConnection(split.getInInnov(), from, split.getNode(), 1.0, true);
+			addConnection(split.getOutInnov(), split.getNode(), to, weight, true);
+			return true;
+		}
+	}
+	
+	/**
+	 * Add a node gene
+	 * @param id	The node's id
+	 * @param type	The node's type
+	 */
+	void addNode( int id, NodeType type ) {
+		if( numNodes == nodeIds.length ) {
+			int capacity = Math.max(4, numNodes * 2);
+			nodeIds = Arrays.copyOf(nodeIds, capacity);
+			nodeTypes = Arrays.copyOf(nodeTypes, capacity);
+		}
+		nodeIds[numNodes] = id;
+		nodeTypes[numNodes] = type;
+		numNodes++;
+	}
+	
+	/**
+	 * Add a connection gene, keeping the genes in innovation order.  New genes
+	 * usually have the highest innovation number, so this is usually an append.
+	 * @param innov		The gene's innovation number
+	 * @param in		The source node
+	 * @param out		The target node
+	 * @param weight	The connection weight
+	 * @param isEnabled	Whether the gene is enabled
+	 */
+	void addConnection( int innov, int in, int out, double weight, boolean isEnabled ) {
+		if( numConnections == innovs.length ) {
+			int capacity = Math.max(4, numConnections * 2);
+			innovs = Arrays.copyOf(innovs, capacity);
+			ins = Arrays.copyOf(ins, capacity);
+			outs = Arrays.copyOf(outs, capacity);
+			weights = Arrays.copyOf(weights, capacity);
 		}
+		int index = numConnections;
+		while( index > 0 && innovs[index-1] > innov ) {
+			index--;
+		}
+		int moved = numConnections - index;
+		System.arraycopy(innovs, index, innovs, index+1, moved);
+		System.arraycopy(ins, index, ins, index+1, moved);
+		System.arraycopy(outs, index, outs, index+1, moved);
+		System.arraycopy(weights, index, weights, index+1, moved);
+		for( int i = numConnections; i > index; i-- ) {
+			enabled.set(i, enabled.get(i-1));
+		}
+		innovs[index] = innov;
+		ins[index] = in;
+		outs[index] = out;
+		weights[index] = weight;
+		enabled.set(index, isEnabled);
+		edges.add(in, out);
+		numConnections++;
 	}
 	
+	/**
+	 * Calculate the compatibility distance between this genome and another.
+	 * Both genomes keep their genes in innovation order, so matching genes are
+	 * found by walking through the two arrays side by side, without allocating.
+	 * 
+	 * When a genome has several genes with the same innovation number, each of
+	 * them counts separately, and the other genome's weight for that innovation
+	 * is taken from its last gene with it.
+	 * 
+	 * @param other	The genome to compare with
+	 * @param c1	Multiplier for excess genes
+	 * @param c2	Multiplier for disjoint genes
+	 * @param c3	Multiplier for the weight differences of matching genes
+	 * @return		The compatibility distance
+	 */
 	public double calculateDistance( Genome other, double c1, double c2, double c3 ) {
-		List<ConnectionGene> otherGenes = other.getConnections();
+		int aSize = numConnections;
+		int bSize = other.numConnections;
 		
 		// Calculate the normalization factor (size of larger of two genomes)
-		double N = Math.max(connections.size(), otherGenes.size());
+		double N = Math.max(aSize, bSize);
 		// If significantly small, don't normalize -> N=1
 		if( N < 20 ) N = 1;
 
-		if( connections.size() == 0 ) {
-			if( otherGenes.size() == 0 ) {
+		if( aSize == 0 ) {
+			if( bSize == 0 ) {
 				// no connections to compare from either genome...
 				return 0;
 			} else {
 				// no connections in this genome, just calculate number of excess in the other genome (normalized)
-				return c1 * otherGenes.size() / N; 
+				return c1 * bSize / N;
 			}
-		} else if( otherGenes.size() == 0 ) {
+		} else if( bSize == 0 ) {
 			// no connections in other genome, just calculate number of excess in this genome (normalized)
-			return c1 * connections.size() / N;
-		} else {
-			// both genomes contain connection genes, so do a gene-for-gene comparison...
-			double numExcess = 0;
-			double numDisjoint = 0;
-			double weightDiff = 0;
-			
-			// remember the max innovation number for each genome (to determine excess vs disjoint)
-			int aMax = 0;
-			int bMax = 0;
+			return c1 * aSize / N;
+		}
 			
-			// make a map of each genome's gene weights for quick comparison
-			HashMap<Integer,Double> aGeneWeights = new HashMap<Integer,Double>();
-			for( ConnectionGene g : connections ) {
-				aMax = Math.max( aMax, g.getInnov() );
-				aGeneWeights.put( g.getInnov(), g.getWeight() );
-			}
-			HashMap<Integer,Double> bGeneWeights = new HashMap<Integer,Double>();
-			for( ConnectionGene g : otherGenes ) {
-				bMax = Math.max( bMax, g.getInnov() );
-				bGeneWeights.put( g.getInnov(), g.getWeight() );
-			}
+		// the last gene has the max innovation number for each genome (to determine excess vs disjoint)
+		int aMax = innovs[aSize - 1];
+		int bMax = other.innovs[bSize - 1];
 			
-			// go through this genome's genes and compare with the other genome's genes
-			for( ConnectionGene g : connections ) {
-				if( bGeneWeights.get( g.getInnov() ) == null ) {
-					if( g.getInnov() > bMax ) {
-						// this is an excess gene
-						numExcess++;
-					} else {
-						// this is a disjoint gene
-						numDisjoint++;
-					}
+		int numExcess = 0;
+		int numDisjoint = 0;
+		double weightDiff = 0;
+		int a = 0;
+		int b = 0;
+		while( a < aSize || b < bSize ) {
+			int aInnov = a < aSize ? innovs[a] : Integer.MAX_VALUE;
+			int bInnov = b < bSize ? other.innovs[b] : Integer.MAX_VALUE;
+			if( aInnov < bInnov ) {
+				// only this genome has the gene
+				if( aInnov > bMax ) {
+					numExcess++;
 				} else {
-					// add the weight difference.
-					weightDiff += Math.abs( g.getWeight() - bGeneWeights.get( g.getInnov() ) );
+					numDisjoint++;
 				}
-			}
-			
-			// go through the other genome's genes and compare with this genome's genes
-			for( ConnectionGene g : otherGenes ) {
-				if( aGeneWeights.get(g.getInnov()) == null ) {
-					if( g.getInnov() > aMax ) {
-						// this is an excess gene
-						numExcess++;
-					} else {
-						// this is a disjoint gene
-						numDisjoint++;
-					}
-					// don't add weight differences, since they are all aready counted from the loop above
+				a++;
+			} else if( bInnov < aInnov ) {
+				// only the other genome has the gene
+				if( bInnov > aMax ) {
+					numExcess++;
+				} else {
+					numDisjoint++;
+				}
+				b++;
+			} else {
+				// both have it, compare each of this genome's genes with the other's last one
+				while( b + 1 < bSize && other.innovs[b + 1] == bInnov ) {
+					b++;
+				}
+				double bWeight = other.weights[b];
+				b++;
+				while( a < aSize && innovs[a] == aInnov ) {
+					weightDiff += Math.abs( weights[a] - bWeight );
+					a++;
 				}
 			}
-			
-			// return sum of normalized connection differences
-			return (c1 * numExcess / N) + (c2 * numDisjoint / N) + (c3 * weightDiff);
 		}
+			
+		// return sum of normalized connection differences
+		return (c1 * numExcess / N) + (c2 * numDisjoint / N) + (c3 * weightDiff);
+	}
+	
+	/**
+	 * @return	The number of node genes
+	 */
+	public int getNumNodes() {
+		return numNodes;
 	}
 	
 	/**
-	 * Getter for node list
+	 * @param n	Index of a node gene
+	 * @return	The node's id
+	 */
+	public int getNodeId( int n ) {
+		return nodeIds[n];
+	}
+	
+	/**
+	 * @param n	Index of a node gene
+	 * @return	The node's type
+	 */
+	public NodeType getNodeType( int n ) {
+		return nodeTypes[n];
+	}
+	
+	/**
+	 * @return	The number of connection genes
+	 */
+	public int getNumConnections() {
+		return numConnections;
+	}
+	
+	/**
+	 * @param i	Index of a connection gene, in innovation order
+	 * @return	The gene's innovation number
+	 */
+	public int getInnov( int i ) {
+		return innovs[i];
+	}
+	
+	/**
+	 * @param i	Index of a connection gene, in innovation order
+	 * @return	The gene's source node
+	 */
+	public int getIn( int i ) {
+		return ins[i];
+	}
+	
+	/**
+	 * @param i	Index of a connection gene, in innovation order
+	 * @return	The gene's target node
+	 */
+	public int getOut( int i ) {
+		return outs[i];
+	}
+	
+	/**
+	 * @param i	Index of a connection gene, in innovation order
+	 * @return	The gene's weight
+	 */
+	public double getWeight( int i ) {
+		return weights[i];
+	}
+	
+	/**
+	 * @param i	Index of a connection gene, in innovation order
+	 * @return	True if the gene is enabled
+	 */
+	public boolean isEnabled( int i ) {
+		return enabled.get(i);
+	}
+	
+	/**
+	 * Copy of the node genes.  Changing them doesn't change this genome.
 	 * @return	The node list
 	 */
 	public List<NodeGene> getNodes() {
-		return nodes;
+		List<NodeGene> nods = new ArrayList<NodeGene>(numNodes);
+		for( int n = 0; n < numNodes; n++ ) {
+			nods.add(new NodeGene(nodeIds[n], nodeTypes[n]));
+		}
+		return nods;
 	}
 	
 	public Map<Integer, NodeGene> getNodeMap() {
 		HashMap<Integer, NodeGene> nods = new HashMap<Integer, NodeGene>();
-		for( NodeGene n : nodes ) {
-			nods.put(n.getId(), n);
+		for( int n = 0; n < numNodes; n++ ) {
+			nods.put(nodeIds[n], new NodeGene(nodeIds[n], nodeTypes[n]));
 		}
 		return nods;
 	}
 	
 	/**
-	 * Getter for the connection list
+	 * Copy of the connection genes, in innovation order.  Changing them
+	 * doesn't change this genome.
 	 * @return	The connection list
 	 */
 	public List<ConnectionGene> getConnections() {
-		return connections;
+		List<ConnectionGene> cons = new ArrayList<ConnectionGene>(numConnections);
+		for( int i = 0; i < numConnections; i++ ) {
+			cons.add(connection(i));
+		}
+		return cons;
+	}
+	
+	/**
+	 * Hash the structure of this genome, ignoring its weights.  Genomes with
+	 * the same nodes and the same connection genes in the same order (such as
+	 * a parent and a child that only had its weights mutated) have the same
+	 * signature, and so build networks with the same structure.
+	 * 
+	 * @return	The topology signature
+	 */
+	public long getTopologySignature() {
+		long signature = numNodes;
+		for( int n = 0; n < numNodes; n++ ) {
+			signature = signature * 31 + nodeIds[n];
+		}
+		for( int i = 0; i < numConnections; i++ ) {
+			signature = signature * 1000003 + ins[i];
+			signature = signature * 1000003 + outs[i];
+			signature = signature * 2 + (enabled.get(i) ? 1 : 0);
+		}
+		return signature;
 	}
 	
 	public Map<Integer, ConnectionGene> getConnectionMap() {
 		HashMap<Integer, ConnectionGene> cons = new HashMap<Integer, ConnectionGene>();
-		for( ConnectionGene c : connections ) {
-			cons.put(c.getInnov(), c);
+		for( int i = 0; i < numConnections; i++ ) {
+			cons.put(innovs[i], connection(i));
 		}
 		return cons;
 	}
 	
+	private ConnectionGene connection( int i ) {
+		ConnectionGene c = new ConnectionGene(innovs[i], weights[i], ins[i], outs[i]);
+		if( !enabled.get(i) ) {
+			c.disable();
+		}
+		return c;
+	}
+	
+	/**
+	 * Write this genome's genes and fitness in a compact binary form, which
+	 * readFrom reads back
+	 * @param out	Where to write the genome
+	 * @throws IOException	If writing fails
+	 */
+	public void writeTo( DataOutput out ) throws IOException {
+		out.writeDouble(fitness);
+		out.writeInt(numNodes);
+		for( int n = 0; n < numNodes; n++ ) {
+			out.writeInt(nodeIds[n]);
+			out.writeByte(nodeTypes[n].ordinal());
+		}
+		out.writeInt(numConnections);
+		for( int i = 0; i < numConnections; i++ ) {
+			out.writeInt(innovs[i]);
+			out.writeInt(ins[i]);
+			out.writeInt(outs[i]);
+			out.writeDouble(weights[i]);
+			out.writeBoolean(enabled.get(i));
+		}
+	}
+	
+	/**
+	 * Read a genome written by writeTo
+	 * @param in	Buffer positioned at the start of the genome, which is left just after it
+	 * @return		The genome
+	 */
+	public static Genome readFrom( ByteBuffer in ) {
+		double fitness = in.getDouble();
+		int numNodes = in.getInt();
+		List<NodeGene> nodes = new ArrayList<NodeGene>(numNodes);
+		for( int n = 0; n < numNodes; n++ ) {
+			int id = in.getInt();
+			nodes.add(new NodeGene(id, NODE_TYPES[in.get()]));
+		}
+		int numConnections = in.getInt();
+		Genome genome = new Genome(nodes, numConnections);
+		for( int i = 0; i < numConnections; i++ ) {
+			int innov = in.getInt();
+			int from = in.getInt();
+			int to = in.getInt();
+			double weight = in.getDouble();
+			// written in innovation order, so each gene is appended
+			genome.addConnection(innov, from, to, weight, in.get() != 0);
+		}
+		genome.fitness = fitness;
+		return genome;
+	}
+	
 	public double getIndividualFitness() {
 		return fitness;
 	}
@@ -309,19 +537,24 @@ public class Genome {
 	
 	public String toString() {
 		String s = String.format("#{%3.3f ", fitness);
-		for( ConnectionGene g : connections ) {
-			s = s + " " + g;
+		for( int i = 0; i < numConnections; i++ ) {
+			s = s + " " + connection(i);
 		}
 		s = s + " }#";
 		return s;
 	}
 	
+	private static double clamp( double weight ) {
+		return Math.max(-1.0, Math.min(1.0, weight));
+	}
+	
 	/**
 	 * Get a random value from -1 to 1
+	 * @param rand The random number generator to draw from
 	 * @return a double value from -1 to 1 (technically excluding 1)
 	 */
-	private static double randomWeight() {
-		return (Math.random() * 2) - 1;
+	private static double randomWeight( Random rand ) {
+		return (rand.nextDouble() * 2) - 1;
 	}
 	
 	
@@ -0,0 +1,269 @@
+package evolution;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hands out innovation numbers and node ids for structural mutations.  When
+ * two genomes make the same structural change, they get the same numbers, so
+ * the new genes line up in crossover and speciation.  The changes are looked
+ * up by their end points in hash maps, so a mutation costs the same however
+ * long evolution has been running.
+ *
+ * How long a change is remembered depends on the policy.  Subclasses can get
+ * the numbers for changes they haven't seen from somewhere else, such as a
+ * registry shared by several populations.
+ */
+public class InnovationRegistry {
+	
+	public enum Policy {
+		// remember every change for the whole run
+		UNBOUNDED,
+		// only match changes made in the same generation, as in the original NEAT
+		PER_GENERATION,
+		// remember only the most recent changes
+		BOUNDED;
+	}
+	
+	/**
+	 * The node and connections made by splitting a connection
+	 */
+	public static class Split {
+		private final int node;
+		private final int inInnov;
+		private final int outInnov;
+		
+		public Split( int node, int inInnov, int outInnov ) {
+			this.node = node;
+			this.inInnov = inInnov;
+			this.outInnov = outInnov;
+		}
+		
+		public int getNode() {
+			return node;
+		}
+		
+		/**
+		 * @return	Innovation number of the connection into the new node
+		 */
+		public int getInInnov() {
+			return inInnov;
+		}
+		
+		/**
+		 * @return	Innovation number of the connection out of the new node
+		 */
+		public int getOutInnov() {
+			return outInnov;
+		}
+	}
+	
+	private final Policy policy;
+	private final int historySize;
+	
+	private int nextInnovNum;
+	private int nextNodeNum;
+	
+	// Innovation number of each connection, by its end points
+	private final Map<Long, Integer> connections;
+	// The result of splitting each connection, by its end points
+	private final Map<Long, Split> splits;
+	
+	/**
+	 * Make a registry that remembers every change
+	 * @param firstNodeId	The id for the first new node, after the inputs and outputs
+	 */
+	public InnovationRegistry( int firstNodeId ) {
+		this(firstNodeId, Policy.UNBOUNDED, 0);
+	}
+	
+	/**
+	 *
+	 * @param firstNodeId	The id for the first new node, after the inputs and outputs
+	 * @param policy		How long changes are remembered
+	 * @param historySize	The number of connections and splits each remembered by the BOUNDED policy
+	 */
+	public InnovationRegistry( int firstNodeId, Policy policy, int historySize ) {
+		if( policy == Policy.BOUNDED && historySize <= 0 ) {
+			throw new IllegalArgumentException("history size must be positive, not " + historySize);
+		}
+		this.policy = policy;
+		this.historySize = historySize;
+		this.nextNodeNum = firstNodeId;
+		this.nextInnovNum = 0;
+		this.connections = history();
+		this.splits = history();
+	}
+	
+	/**
+	 * Copy another registry's policy, counters and remembered changes
+	 * @param other	Registry to copy
+	 */
+	public InnovationRegistry( InnovationRegistry other ) {
+		this.policy = other.policy;
+		this.historySize = other.historySize;
+		this.nextInnovNum = other.getNextInnovation();
+		this.nextNodeNum = other.getNextNodeId();
+		this.connections = history();
+		this.connections.putAll(other.connections);
+		this.splits = history();
+		this.splits.putAll(other.splits);
+	}
+	
+	private <V> Map<Long, V> history() {
+		if( policy != Policy.BOUNDED ) {
+			return new HashMap<Long, V>();
+		}
+		return new LinkedHashMap<Long, V>() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<Long, V> eldest ) {
+				return size() > historySize;
+			}
+		};
+	}
+	
+	/**
+	 * Called at the start of every generation, before any mutations
+	 */
+	public void startGeneration() {
+		if( policy == Policy.PER_GENERATION ) {
+			connections.clear();
+			splits.clear();
+		}
+	}
+	
+	/**
+	 * Get the innovation number for a connection, giving it a new one if it
+	 * hasn't been made before
+	 * @param in	The source node
+	 * @param out	The target node
+	 * @return		The connection's innovation number
+	 */
+	public int connection( int in, int out ) {
+		Long key = key(in, out);
+		Integer innov = connections.get(key);
+		if( innov == null ) {
+			innov = newConnection(in, out);
+			connections.put(key, innov);
+		}
+		return innov;
+	}
+	
+	/**
+	 * Give a connection that isn't remembered its innovation number
+	 * @param in	The source node
+	 * @param out	The target node
+	 * @return		The connection's innovation number
+	 */
+	protected int newConnection( int in, int out ) {
+		return nextInnovNum++;
+	}
+	
+	/**
+	 * Get the node and connections for splitting a connection, making new
+	 * ones if it hasn't been split before
+	 * @param in	The source node of the connection being split
+	 * @param out	The target node of the connection being split
+	 * @return		The new node and the innovation numbers of its connections
+	 */
+	public Split split( int in, int out ) {
+		Long key = key(in, out);
+		Split split = splits.get(key);
+		if( split == null ) {
+			split = newSplit(in, out);
+			splits.put(key, split);
+			// the new connections can be matched by later connection mutations too
+			connections.put(key(in, split.getNode()), split.getInInnov());
+			connections.put(key(split.getNode(), out), split.getOutInnov());
+		}
+		return split;
+	}
+	
+	/**
+	 * Give a split of a connection that isn't remembered its node and innovation numbers
+	 * @param in	The source node of the connection being split
+	 * @param out	The target node of the connection being split
+	 * @return		The new node and the innovation numbers of its connections
+	 */
+	protected Split newSplit( int in, int out ) {
+		Split split = new Split(nextNodeNum++, nextInnovNum, nextInnovNum + 1);
+		nextInnovNum += 2;
+		return split;
+	}
+	
+	/**
+	 * @return	The innovation number the next new connection will get
+	 */
+	public int getNextInnovation() {
+		return nextInnovNum;
+	}
+	
+	/**
+	 * @return	The id the next new node will get
+	 */
+	public int getNextNodeId() {
+		return nextNodeNum;
+	}
+	
+	/**
+	 * Write the policy, counters and remembered changes in a compact binary
+	 * form, which readFrom reads back.  The changes are written oldest first,
+	 * so the BOUNDED policy forgets them in the same order after reading.
+	 * @param out	Where to write the registry
+	 * @throws IOException	If writing fails
+	 */
+	public void writeTo( DataOutput out ) throws IOException {
+		out.writeByte(policy.ordinal());
+		out.writeInt(historySize);
+		out.writeInt(getNextInnovation());
+		out.writeInt(getNextNodeId());
+		out.writeInt(connections.size());
+		for( Map.Entry<Long, Integer> entry : connections.entrySet() ) {
+			out.writeLong(entry.getKey());
+			out.writeInt(entry.getValue());
+		}
+		out.writeInt(splits.size());
+		for( Map.Entry<Long, Split> entry : splits.entrySet() ) {
+			out.writeLong(entry.getKey());
+			out.writeInt(entry.getValue().getNode());
+			out.writeInt(entry.getValue().getInInnov());
+			out.writeInt(entry.getValue().getOutInnov());
+		}
+	}
+	
+	/**
+	 * Read a registry written by writeTo
+	 * @param in	Buffer positioned at the start of the registry, which is left just after it
+	 * @return		The registry
+	 */
+	public static InnovationRegistry readFrom( ByteBuffer in ) {
+		Policy policy = Policy.values()[in.get()];
+		int historySize = in.getInt();
+		int nextInnovNum = in.getInt();
+		InnovationRegistry registry = new InnovationRegistry(in.getInt(), policy, historySize);
+		registry.nextInnovNum = nextInnovNum;
+		int numConnections = in.getInt();
+		for( int i = 0; i < numConnections; i++ ) {
+			long key = in.getLong();
+			registry.connections.put(key, in.getInt());
+		}
+		int numSplits = in.getInt();
+		for( int i = 0; i < numSplits; i++ ) {
+			long key = in.getLong();
+			int node = in.getInt();
+			int inInnov = in.getInt();
+			int outInnov = in.getInt();
+			registry.splits.put(key, new Split(node, inInnov, outInnov));
+		}
+		return registry;
+	}
+	
+	private static long key( int in, int out ) {
+		return ((long) in << 32) | (out & 0xffffffffL);
+	}
+}
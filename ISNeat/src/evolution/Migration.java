@@ -0,0 +1,19 @@
+package evolution;
+
+import java.util.List;
+
+/**
+ * Exchanges genomes with other populations evolving on the same task, such as
+ * islands running in other processes.
+ */
+public interface Migration {
+	
+	/**
+	 * Send copies of some of this population's best genomes to the other
+	 * populations, and get the genomes they have sent since the last exchange
+	 * 
+	 * @param emigrants	Copies of this population's best genomes
+	 * @return			The genomes sent by the other populations, to join this one
+	 */
+	public List<Genome> migrate( List<Genome> emigrants );
+}
@@ -1,10 +1,17 @@
 package evolution;
 
-import java.util.Collections;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 
+/**
+ * A species of genomes.  The best genome and the fitness sums are kept up to
+ * date as genomes are added and their fitnesses are set, and the organisms
+ * are only sorted when they are asked for in order after a change.
+ */
 public class Species {
 
 	private static final int IMMUNITY_TIME = 15;
@@ -17,36 +24,103 @@ public class Species {
 	private List<Genome> organisms;
 	private Genome representative = null;
 	
+	// Kept up to date as genomes are added and their fitnesses are set
+	private Genome best = null;
+	private double fitnessSum = 0;
+	private double sharedFitnessSum = 0;
+	// True while the organisms are still sorted by individual fitness
+	private boolean sorted = false;
+	
 	
 	public Species( int startGen, int id, List<Genome> firstMembers ) {
 		this.id = id;
 		this.startGen = startGen;
-		organisms = firstMembers;
+		organisms = new ArrayList<Genome>(firstMembers.size());
+		for( Genome genome : firstMembers ) {
+			add(genome);
+		}
 		representative = getBestGenome();
 	}
 	
+	/**
+	 * Cloning constructor, which copies the organisms too
+	 * @param species	Species to clone
+	 */
+	public Species( Species species ) {
+		this(species.startGen, species.id, copies(species.organisms));
+		this.intendedSize = species.intendedSize;
+		this.gensSinceImprovement = species.gensSinceImprovement;
+		// the representative can be one of the organisms, which have to stay the same object
+		int member = species.organisms.indexOf(species.representative);
+		this.representative = member >= 0 ? organisms.get(member) : new Genome(species.representative);
+	}
+	
+	private static List<Genome> copies( List<Genome> genomes ) {
+		List<Genome> copies = new ArrayList<Genome>(genomes.size());
+		for( Genome genome : genomes ) {
+			copies.add(new Genome(genome));
+		}
+		return copies;
+	}
+	
 	public void cullTheWeak( int numSurvivors ) {
-		organisms.sort(Genome.BY_SHARED_FITNESS());
+		// every member's shared fitness is its fitness over the same species size,
+		// so sorting by individual fitness puts them in the same order
+		sort();
 		numSurvivors = Math.min(numSurvivors, organisms.size());
-		organisms = organisms.subList(0, numSurvivors);
+		organisms.subList(numSurvivors, organisms.size()).clear();
+		best = organisms.isEmpty() ? null : organisms.get(0);
+		fitnessSum = 0;
+		sharedFitnessSum = 0;
+		for( Genome genome : organisms ) {
+			fitnessSum += genome.getIndividualFitness();
+			sharedFitnessSum += genome.getSharedFitness();
+		}
 	}
 	
 	public void clear() {
-		organisms = new LinkedList<Genome>();
+		organisms = new ArrayList<Genome>();
+		best = null;
+		fitnessSum = 0;
+		sharedFitnessSum = 0;
+		sorted = true;
 	}
 	
 	public double getBestFitness() {
 		return getBestGenome().getIndividualFitness();
 	}
 	
+	/**
+	 * @return	The member with the highest individual fitness, or null if there are none
+	 */
 	public Genome getBestGenome() {
-		organisms.sort(Genome.BY_INDIVIDUAL_FITNESS());
-		Genome best = organisms.get(0);
-		return best; 
+		return best;
+	}
+	
+	/**
+	 * Set a member's fitness, keeping the best genome and the fitness sum up to date
+	 * @param genome	A member of this species
+	 * @param fitness	The genome's new fitness
+	 */
+	public void setFitness( Genome genome, double fitness ) {
+		double old = genome.getIndividualFitness();
+		genome.setIndividualFitness(fitness);
+		fitnessSum += fitness - old;
+		sorted = false;
+		if( fitness > best.getIndividualFitness() ) {
+			best = genome;
+		} else if( genome == best && fitness < old ) {
+			// the best got worse, so look for the new best
+			for( Genome g : organisms ) {
+				if( g.getIndividualFitness() > best.getIndividualFitness() ) {
+					best = g;
+				}
+			}
+		}
 	}
 	
 	public List<Genome> getNonBestGenomes() {
-		List<Genome> lameGenomes = new LinkedList<Genome>(organisms);
+		List<Genome> lameGenomes = new ArrayList<Genome>(organisms);
 		lameGenomes.remove(getBestGenome());
 		return lameGenomes;
 		
@@ -94,34 +168,51 @@ public class Species {
 	}
 	
 	public void shareFitnesses() {
+		sharedFitnessSum = 0;
 		for( Genome genome : organisms ) {
 			genome.setSharedFitness(this.size());
+			sharedFitnessSum += genome.getSharedFitness();
 		}
 	}
 	
 	public double sumOfFitnesses() {
-		double sum = 0;
-		for( Genome genome : organisms ) {
-			sum += genome.getIndividualFitness();
-		}
-		return sum;
+		return fitnessSum;
 	}
 	
 	public double sumOfSharedFitnesses() {
-		double sum = 0;
-		for( Genome genome : organisms ) {
-			sum += genome.getSharedFitness();
-		}
-		return sum;
+		return sharedFitnessSum;
 	}
 	
+	/**
+	 * @return	The organisms, sorted from the best individual fitness to the worst
+	 */
 	public List<Genome> getOrganisms() {
-		organisms.sort(Genome.BY_INDIVIDUAL_FITNESS());
+		sort();
+		return organisms;
+	}
+	
+	/**
+	 * @return	The organisms, without sorting them
+	 */
+	public List<Genome> getMembers() {
 		return organisms;
 	}
 	
+	private void sort() {
+		if( !sorted ) {
+			organisms.sort(Genome.BY_INDIVIDUAL_FITNESS());
+			sorted = true;
+		}
+	}
+	
 	public void add(Genome genome) {
 		organisms.add(genome);
+		fitnessSum += genome.getIndividualFitness();
+		sharedFitnessSum += genome.getSharedFitness();
+		sorted = false;
+		if( best == null || genome.getIndividualFitness() > best.getIndividualFitness() ) {
+			best = genome;
+		}
 	}
 	
 	public int size() {
@@ -136,8 +227,53 @@ public class Species {
 		return id;
 	}
 	
+	/**
+	 * Write this species and its organisms in a compact binary form, which
+	 * readFrom reads back
+	 * @param out	Where to write the species
+	 * @throws IOException	If writing fails
+	 */
+	public void writeTo( DataOutput out ) throws IOException {
+		out.writeInt(id);
+		out.writeInt(startGen);
+		out.writeInt(gensSinceImprovement);
+		out.writeInt(intendedSize);
+		out.writeInt(organisms.size());
+		for( Genome genome : organisms ) {
+			genome.writeTo(out);
+		}
+		// the representative is written by its place in the organisms if it is one of them
+		int member = organisms.indexOf(representative);
+		out.writeInt(member);
+		if( member < 0 ) {
+			representative.writeTo(out);
+		}
+	}
+	
+	/**
+	 * Read a species written by writeTo
+	 * @param in	Buffer positioned at the start of the species, which is left just after it
+	 * @return		The species
+	 */
+	public static Species readFrom( ByteBuffer in ) {
+		int id = in.getInt();
+		int startGen = in.getInt();
+		int gensSinceImprovement = in.getInt();
+		int intendedSize = in.getInt();
+		int numOrganisms = in.getInt();
+		List<Genome> organisms = new ArrayList<Genome>(numOrganisms);
+		for( int i = 0; i < numOrganisms; i++ ) {
+			organisms.add(Genome.readFrom(in));
+		}
+		Species species = new Species(startGen, id, organisms);
+		species.gensSinceImprovement = gensSinceImprovement;
+		species.intendedSize = intendedSize;
+		int member = in.getInt();
+		species.representative = member >= 0 ? species.organisms.get(member) : Genome.readFrom(in);
+		return species;
+	}
+	
 	public String toString() {
-		Collections.sort(organisms, Genome.BY_INDIVIDUAL_FITNESS());
 		String output = String.format("<%d:\t[%3.3f][%3.3f] %d: ", getId(), sumOfSharedFitnesses(), getBestFitness(), size());
 /*
 		for( Genome g : organisms ) {
@@ -0,0 +1,138 @@
+package evolution;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The representatives of a list of species, each with a summary of its
+ * genes: the number of genes, the range of innovation numbers, and a bitset
+ * of the innovation numbers.  Comparing two summaries gives a lower bound on
+ * the excess and disjoint part of the compatibility distance, so most of the
+ * representatives a genome can't be compatible with are skipped without
+ * calculating the full distance.
+ *
+ * Finding a genome's species doesn't change the index, so several genomes can
+ * be placed at once.
+ */
+final class SpeciesIndex {
+	
+	// Allowance for rounding in calculateDistance, so a representative is never
+	// skipped when its distance would have come out just under the threshold
+	private static final double ROUNDING = 1e-9;
+	
+	/**
+	 * The gene summary of a genome
+	 */
+	private static final class Summary {
+		private final int numGenes;
+		private final int minInnov;
+		private final int maxInnov;
+		// One bit for each innovation number the genome has
+		private final long[] innovs;
+		
+		Summary( Genome genome ) {
+			numGenes = genome.getNumConnections();
+			if( numGenes == 0 ) {
+				minInnov = 0;
+				maxInnov = -1;
+				innovs = new long[0];
+				return;
+			}
+			// the genes are in innovation order
+			minInnov = genome.getInnov(0);
+			maxInnov = genome.getInnov(numGenes - 1);
+			innovs = new long[(maxInnov >> 6) + 1];
+			for( int i = 0; i < numGenes; i++ ) {
+				innovs[genome.getInnov(i) >> 6] |= 1L << genome.getInnov(i);
+			}
+		}
+		
+		/**
+		 * Every innovation number only one of the genomes has belongs to at
+		 * least one excess or disjoint gene, so the number of them is a lower
+		 * bound on the number of excess and disjoint genes.
+		 *
+		 * @param other	The other genome's summary
+		 * @return		A lower bound on the number of excess and disjoint genes
+		 */
+		int minUnmatched( Summary other ) {
+			if( numGenes == 0 || other.numGenes == 0 || maxInnov < other.minInnov || other.maxInnov < minInnov ) {
+				// no genes can match
+				return numGenes + other.numGenes;
+			}
+			// count the innovation numbers only one of them has
+			long[] longer = innovs.length > other.innovs.length ? innovs : other.innovs;
+			long[] shorter = longer == innovs ? other.innovs : innovs;
+			int unmatched = 0;
+			for( int w = 0; w < shorter.length; w++ ) {
+				unmatched += Long.bitCount(shorter[w] ^ longer[w]);
+			}
+			for( int w = shorter.length; w < longer.length; w++ ) {
+				unmatched += Long.bitCount(longer[w]);
+			}
+			return unmatched;
+		}
+	}
+	
+	private final List<Genome> representatives = new ArrayList<Genome>();
+	private final List<Summary> summaries = new ArrayList<Summary>();
+	
+	/**
+	 * Make an empty index
+	 */
+	SpeciesIndex() {
+		
+	}
+	
+	/**
+	 * Make an index of the current representatives of some species
+	 * @param species	The species, in the order they should be tried
+	 */
+	SpeciesIndex( List<Species> species ) {
+		for( Species s : species ) {
+			add(s.getRepresentative());
+		}
+	}
+	
+	/**
+	 * Add a species to the end of the index
+	 * @param representative	The species' representative
+	 */
+	void add( Genome representative ) {
+		representatives.add(representative);
+		summaries.add(new Summary(representative));
+	}
+	
+	/**
+	 * Find the species a genome belongs in.  The preferred species is tried
+	 * first, and then the rest in order.
+	 *
+	 * @param genome	The genome to place
+	 * @param preferred	Index of the species to try first, or -1 for none
+	 * @return			The index of the species the genome is compatible with, or -1 if there isn't one
+	 */
+	int find( Genome genome, int preferred ) {
+		Summary summary = new Summary(genome);
+		if( preferred >= 0 && isCompatible(preferred, genome, summary) ) {
+			return preferred;
+		}
+		for( int i = 0; i < representatives.size(); i++ ) {
+			if( i != preferred && isCompatible(i, genome, summary) ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private boolean isCompatible( int index, Genome genome, Summary summary ) {
+		Summary representative = summaries.get(index);
+		// normalized the same way as calculateDistance, which only adds the weight differences on top
+		double N = Math.max(representative.numGenes, summary.numGenes);
+		if( N < 20 ) N = 1;
+		double lowerBound = Math.min(Evolver.C1, Evolver.C2) * representative.minUnmatched(summary) / N;
+		if( lowerBound >= Evolver.COMPATABILITY_THRESHOLD + ROUNDING ) {
+			return false;
+		}
+		return representatives.get(index).calculateDistance(genome, Evolver.C1, Evolver.C2, Evolver.C3) < Evolver.COMPATABILITY_THRESHOLD;
+	}
+}
@@ -0,0 +1,138 @@
+package island;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import evolution.Genome;
+import evolution.InnovationRegistry;
+import evolution.Migration;
+import task.Task;
+
+/**
+ * An island's connection to the hub (see IslandHub).  It gets innovation
+ * numbers for the island's RemoteInnovationRegistry, and trades genomes with
+ * the other islands as the island's Migration.
+ */
+public class IslandClient implements Migration, Closeable {
+	
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	
+	/**
+	 * Connect to a hub
+	 * @param host	The hub's host name
+	 * @param port	The hub's port
+	 * @param task	The task the island evolves networks for
+	 * @throws IOException	If the hub can't be reached, or its islands have different inputs or outputs
+	 */
+	public IslandClient( String host, int port, Task task ) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		
+		// the evolver numbers the inputs and then the outputs in this order, so
+		// islands with the same names in the same order give their nodes the same ids
+		out.writeByte(IslandHub.HELLO);
+		writeNames(task.getInputs());
+		writeNames(task.getOutputs());
+		out.flush();
+		if( !in.readBoolean() ) {
+			socket.close();
+			throw new IOException("the hub's islands have different inputs or outputs");
+		}
+	}
+	
+	private void writeNames( List<String> names ) throws IOException {
+		out.writeInt(names.size());
+		for( String name : names ) {
+			out.writeUTF(name);
+		}
+	}
+	
+	/**
+	 * Get a connection's innovation number from the hub
+	 * @param from	The source node
+	 * @param to	The target node
+	 * @return		The connection's innovation number
+	 */
+	synchronized int connection( int from, int to ) {
+		try {
+			out.writeByte(IslandHub.CONNECTION);
+			out.writeInt(from);
+			out.writeInt(to);
+			out.flush();
+			return in.readInt();
+		} catch( IOException e ) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Get the node and innovation numbers for splitting a connection from the hub
+	 * @param from	The source node of the connection being split
+	 * @param to	The target node of the connection being split
+	 * @return		The new node and the innovation numbers of its connections
+	 */
+	synchronized InnovationRegistry.Split split( int from, int to ) {
+		try {
+			out.writeByte(IslandHub.SPLIT);
+			out.writeInt(from);
+			out.writeInt(to);
+			out.flush();
+			int node = in.readInt();
+			int inInnov = in.readInt();
+			int outInnov = in.readInt();
+			return new InnovationRegistry.Split(node, inInnov, outInnov);
+		} catch( IOException e ) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Send genomes to the other islands through the hub, and get the latest
+	 * genomes each of them has sent since the last exchange
+	 */
+	@Override
+	public synchronized List<Genome> migrate( List<Genome> emigrants ) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream genomes = new DataOutputStream(bytes);
+			for( Genome g : emigrants ) {
+				g.writeTo(genomes);
+			}
+			out.writeByte(IslandHub.MIGRATE);
+			out.writeInt(emigrants.size());
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+			out.flush();
+			
+			int count = in.readInt();
+			byte[] received = new byte[in.readInt()];
+			in.readFully(received);
+			ByteBuffer buffer = ByteBuffer.wrap(received);
+			List<Genome> immigrants = new ArrayList<Genome>(count);
+			for( int i = 0; i < count; i++ ) {
+				immigrants.add(Genome.readFrom(buffer));
+			}
+			return immigrants;
+		} catch( IOException e ) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -0,0 +1,248 @@
+package island;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import evolution.InnovationRegistry;
+
+/**
+ * The hub of an island model, where several populations evolve on the same
+ * task in separate processes.  Each island connects to the hub, which hands
+ * out every island's innovation numbers and node ids from one registry, so
+ * the same structural change gets the same numbers on every island.  An
+ * island is only let in if its task has the same input and output names, in
+ * the same order, as the first island's, so its nodes have the same ids.  The hub
+ * also passes on the genomes each island sends to all of the others.
+ *
+ * Each island is served on its own thread.  Messages are a type byte followed
+ * by the message's fields, written with DataOutputStream.
+ */
+public class IslandHub implements Runnable, Closeable {
+	
+	// Message types
+	static final byte HELLO = 0;
+	static final byte CONNECTION = 1;
+	static final byte SPLIT = 2;
+	static final byte MIGRATE = 3;
+	
+	/**
+	 * A group of genomes sent by one island, still encoded
+	 */
+	private static class Batch {
+		private final int version;
+		private final int count;
+		private final byte[] genomes;
+		
+		Batch( int version, int count, byte[] genomes ) {
+			this.version = version;
+			this.count = count;
+			this.genomes = genomes;
+		}
+	}
+	
+	private final ServerSocket server;
+	
+	// Made when the first island says hello, since it depends on the task
+	private InnovationRegistry innovations = null;
+	private List<String> inputs;
+	private List<String> outputs;
+	
+	// The latest genomes sent by each island, by island number
+	private final Map<Integer, Batch> batches = new HashMap<Integer, Batch>();
+	private int nextIsland = 0;
+	
+	/**
+	 * Make a hub listening for islands
+	 * @param port	The port to listen on, or 0 for any free port
+	 * @throws IOException	If the port can't be opened
+	 */
+	public IslandHub( int port ) throws IOException {
+		server = new ServerSocket(port);
+	}
+	
+	/**
+	 * @return	The port the hub is listening on
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+	
+	/**
+	 * Serve islands on a background thread until the hub is closed
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "island hub");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Serve islands until the hub is closed
+	 */
+	@Override
+	public void run() {
+		while( !server.isClosed() ) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch( IOException e ) {
+				// closed
+				return;
+			}
+			final int island;
+			synchronized( batches ) {
+				island = nextIsland++;
+			}
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					serve(island, socket);
+				}
+			}, "island " + island);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+	
+	/**
+	 * Answer one island's messages until it disconnects
+	 */
+	private void serve( int island, Socket socket ) {
+		// The version of every other island's batch this island has already been sent
+		Map<Integer, Integer> received = new HashMap<Integer, Integer>();
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			
+			// the island has to say hello first
+			if( in.readByte() != HELLO ) {
+				throw new IOException("expected a hello");
+			}
+			List<String> inputs = readNames(in);
+			List<String> outputs = readNames(in);
+			boolean joined = hello(inputs, outputs);
+			out.writeBoolean(joined);
+			out.flush();
+			if( !joined ) {
+				return;
+			}
+			
+			while( true ) {
+				byte type = in.readByte();
+				switch( type ) {
+				case CONNECTION: {
+					int from = in.readInt();
+					int to = in.readInt();
+					synchronized( this ) {
+						out.writeInt(innovations.connection(from, to));
+					}
+					break;
+				}
+				case SPLIT: {
+					int from = in.readInt();
+					int to = in.readInt();
+					InnovationRegistry.Split split;
+					synchronized( this ) {
+						split = innovations.split(from, to);
+					}
+					out.writeInt(split.getNode());
+					out.writeInt(split.getInInnov());
+					out.writeInt(split.getOutInnov());
+					break;
+				}
+				case MIGRATE: {
+					int count = in.readInt();
+					byte[] genomes = new byte[in.readInt()];
+					in.readFully(genomes);
+					migrate(island, count, genomes, received, out);
+					break;
+				}
+				default:
+					throw new IOException("unknown message type " + type);
+				}
+				out.flush();
+			}
+		} catch( EOFException e ) {
+			// the island disconnected
+		} catch( SocketException e ) {
+			// the island disconnected
+		} catch( IOException e ) {
+			System.err.println("Island " + island + " failed: " + e);
+		} finally {
+			try {
+				socket.close();
+			} catch( IOException e ) {
+				// already closed
+			}
+		}
+	}
+	
+	private static List<String> readNames( DataInputStream in ) throws IOException {
+		int count = in.readInt();
+		List<String> names = new ArrayList<String>(count);
+		for( int i = 0; i < count; i++ ) {
+			names.add(in.readUTF());
+		}
+		return names;
+	}
+	
+	/**
+	 * Check that an island's task has the same inputs and outputs as the
+	 * others, in the same order
+	 * @param inputs	The names of the island's inputs
+	 * @param outputs	The names of the island's outputs
+	 * @return			True if the island can join
+	 */
+	private synchronized boolean hello( List<String> inputs, List<String> outputs ) {
+		if( innovations == null ) {
+			innovations = new InnovationRegistry(inputs.size() + outputs.size());
+			this.inputs = inputs;
+			this.outputs = outputs;
+		}
+		return inputs.equals(this.inputs) && outputs.equals(this.outputs);
+	}
+	
+	/**
+	 * Keep the genomes an island sent, and send it the batches from the other
+	 * islands it hasn't had yet
+	 */
+	private void migrate( int island, int count, byte[] genomes, Map<Integer, Integer> received, DataOutputStream out ) throws IOException {
+		ByteArrayOutputStream immigrants = new ByteArrayOutputStream();
+		int numImmigrants = 0;
+		synchronized( batches ) {
+			Batch previous = batches.get(island);
+			batches.put(island, new Batch(previous == null ? 0 : previous.version + 1, count, genomes));
+			for( Map.Entry<Integer, Batch> entry : batches.entrySet() ) {
+				Batch batch = entry.getValue();
+				Integer version = received.get(entry.getKey());
+				if( entry.getKey() != island && (version == null || version < batch.version) ) {
+					immigrants.write(batch.genomes);
+					numImmigrants += batch.count;
+					received.put(entry.getKey(), batch.version);
+				}
+			}
+		}
+		out.writeInt(numImmigrants);
+		out.writeInt(immigrants.size());
+		immigrants.writeTo(out);
+	}
+}
@@ -0,0 +1,61 @@
+package island;
+
+import evolution.InnovationRegistry;
+
+/**
+ * An island's innovation registry, which gets the numbers for changes it
+ * hasn't seen from the hub, so every island gives the same change the same
+ * numbers.  The hub never forgets a change, so the numbers it gives are
+ * remembered here too, and each change only goes to the hub once.
+ */
+public class RemoteInnovationRegistry extends InnovationRegistry {
+	
+	private final IslandClient hub;
+	
+	// Highest numbers handed out so far, as far as this island knows
+	private int nextInnovNum;
+	private int nextNodeNum;
+	
+	/**
+	 * 
+	 * @param hub			The island's connection to the hub
+	 * @param firstNodeId	The id of the first hidden node, one more than the task's inputs and outputs
+	 */
+	public RemoteInnovationRegistry( IslandClient hub, int firstNodeId ) {
+		super(firstNodeId);
+		this.hub = hub;
+		this.nextInnovNum = 0;
+		this.nextNodeNum = firstNodeId;
+	}
+	
+	@Override
+	protected int newConnection( int in, int out ) {
+		int innov = hub.connection(in, out);
+		nextInnovNum = Math.max(nextInnovNum, innov + 1);
+		return innov;
+	}
+	
+	@Override
+	protected Split newSplit( int in, int out ) {
+		Split split = hub.split(in, out);
+		nextInnovNum = Math.max(nextInnovNum, split.getOutInnov() + 1);
+		nextNodeNum = Math.max(nextNodeNum, split.getNode() + 1);
+		return split;
+	}
+	
+	/**
+	 * @return	One more than the highest innovation number this island has been given
+	 */
+	@Override
+	public int getNextInnovation() {
+		return nextInnovNum;
+	}
+	
+	/**
+	 * @return	One more than the highest node id this island has been given
+	 */
+	@Override
+	public int getNextNodeId() {
+		return nextNodeNum;
+	}
+}
@@ -0,0 +1,91 @@
+package neuralnetwork;
+
+/**
+ * Activation functions for network nodes.  Each one is a version of the
+ * steepened sigmoid 1 / (1 + e^(-4.9 * x)) used by NEAT, trading accuracy
+ * for speed.  The error bounds below are the largest absolute difference
+ * from EXACT over all inputs.
+ */
+public enum Activation {
+	
+	/**
+	 * The steepened sigmoid, computed exactly as it always has been.
+	 */
+	EXACT {
+		@Override
+		public double apply(double sum) {
+			return 1 / (1 + Math.pow(Math.E, -4.9 * sum));
+		}
+	},
+	
+	/**
+	 * The steepened sigmoid using Math.exp, which is faster than Math.pow on
+	 * most JVMs.  Error: within 2.3e-16 (about one ulp).
+	 */
+	EXP {
+		@Override
+		public double apply(double sum) {
+			return 1 / (1 + Math.exp(-4.9 * sum));
+		}
+	},
+	
+	/**
+	 * Linear interpolation in a table of TABLE_SIZE intervals over
+	 * [-TABLE_RANGE, TABLE_RANGE], clamped to the end values outside of it.
+	 * Error: within 1.2e-6.
+	 */
+	TABLE {
+		@Override
+		public double apply(double sum) {
+			double position = (sum + TABLE_RANGE) * TABLE_SCALE;
+			if( position <= 0 ) {
+				return Table.VALUES[0];
+			} else if( position >= TABLE_SIZE ) {
+				return Table.VALUES[TABLE_SIZE];
+			}
+			int index = (int) position;
+			double low = Table.VALUES[index];
+			return low + (Table.VALUES[index+1] - low) * (position - index);
+		}
+	},
+	
+	/**
+	 * A rational approximation with no calls to exp, using sigmoid(x) = (1 + tanh(x/2)) / 2
+	 * and a 7/6 continued fraction for tanh, clamped where the fraction reaches one.
+	 * Error: within 5e-5.
+	 */
+	RATIONAL {
+		@Override
+		public double apply(double sum) {
+			double y = Math.max(-RATIONAL_LIMIT, Math.min(RATIONAL_LIMIT, 2.45 * sum));
+			double y2 = y * y;
+			double tanh = y * (135135 + y2 * (17325 + y2 * (378 + y2)))
+							/ (135135 + y2 * (62370 + y2 * (3150 + y2 * 28)));
+			return 0.5 + 0.5 * Math.max(-1.0, Math.min(1.0, tanh));
+		}
+	};
+	
+	private static final double TABLE_RANGE = 4.0;
+	private static final int TABLE_SIZE = 4096;
+	private static final double TABLE_SCALE = TABLE_SIZE / (2 * TABLE_RANGE);
+	private static final double RATIONAL_LIMIT = 4.97;
+	
+	/**
+	 * Apply the activation function
+	 * @param sum	The weighted sum of a node's inputs
+	 * @return		The node's new state
+	 */
+	public abstract double apply(double sum);
+	
+	/**
+	 * Holder for the lookup table, so it is only built if TABLE is used.
+	 */
+	private static class Table {
+		static final double[] VALUES = new double[TABLE_SIZE + 1];
+		static {
+			for( int i = 0; i <= TABLE_SIZE; i++ ) {
+				VALUES[i] = EXACT.apply(-TABLE_RANGE + i / TABLE_SCALE);
+			}
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package neuralnetwork;
+
+/**
+ * A network's updates compiled into straight-line code, with its node indices
+ * built in as constants.  The weights are passed in, so one kernel serves every
+ * network with the same structure.  Implemented by the classes that
+ * NetworkCompiler generates, not by hand.
+ */
+public interface CompiledKernel {
+	
+	/**
+	 * Update every node once, reading the old states and writing the new ones.
+	 * @param src		The current states
+	 * @param dst		The array to write the new states into
+	 * @param weights	The weight of each connection, in the network's order
+	 */
+	public void step(double[] src, double[] dst, double[] weights);
+	
+	/**
+	 * Update every node once in evaluation order, in place.  Does nothing for a recurrent network.
+	 * @param states	The states to update
+	 * @param weights	The weight of each connection, in the network's order
+	 */
+	public void updateInOrder(double[] states, double[] weights);
+}
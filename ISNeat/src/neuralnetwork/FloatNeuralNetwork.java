@@ -0,0 +1,85 @@
+package neuralnetwork;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A network that stores its weights as floats and adds up each node's inputs
+ * in float arithmetic.  States are still kept as doubles.
+ */
+class FloatNeuralNetwork extends NeuralNetwork {
+	
+	private float[] weights;
+	
+	FloatNeuralNetwork(int numNodes, int[] inStart, int[] inFrom, double[] inWeight, int[] order, Map<String, Integer> inputs, Map<String, Integer> outputs, Activation activation) {
+		super(numNodes, inStart, inFrom, inWeight, order, inputs, outputs, activation);
+		storeWeights();
+	}
+	
+	/**
+	 * Move the double weights into the float array, reusing it if it has room
+	 */
+	private void storeWeights() {
+		int count = getNumConnections();
+		if( weights == null || weights.length < count ) {
+			weights = new float[capacity(count)];
+		}
+		for( int c = 0; c < count; c++ ) {
+			weights[c] = (float) inWeight[c];
+		}
+		inWeight = null;
+	}
+	
+	@Override
+	double weightedSum(double[] src, int t) {
+		float sum = 0;
+		for( int c = inStart[t]; c < inStart[t+1]; c++ ) {
+			sum += (float) src[inFrom[c]] * weights[c];
+		}
+		return sum;
+	}
+	
+	@Override
+	void batchWeightedSums(int t, double[] batch, double[] sums, int rows) {
+		Arrays.fill(sums, 0, rows, 0.0);
+		for( int c = inStart[t]; c < inStart[t+1]; c++ ) {
+			int from = inFrom[c] * rows;
+			float weight = weights[c];
+			for( int r = 0; r < rows; r++ ) {
+				// every sum is a float, so storing it as a double loses nothing
+				sums[r] = (float) sums[r] + (float) batch[from + r] * weight;
+			}
+		}
+	}
+	
+	@Override
+	void reset(int numNodes, int[] inStart, int[] inFrom, double[] inWeight, int[] order, Map<String, Integer> inputs, Map<String, Integer> outputs) {
+		super.reset(numNodes, inStart, inFrom, inWeight, order, inputs, outputs);
+		storeWeights();
+	}
+	
+	@Override
+	public void setWeight(int from, int to, double weight) {
+		int index = Arrays.binarySearch(inFrom, inStart[to], inStart[to+1], from);
+		if( index >= 0 && weight != 0 ) {
+			// the structure stays the same, so only the one weight changes
+			weights[index] = (float) weight;
+			if( isIncremental() ) {
+				setIncremental(true);
+			}
+			return;
+		}
+		int count = getNumConnections();
+		inWeight = new double[count];
+		for( int c = 0; c < count; c++ ) {
+			inWeight[c] = weights[c];
+		}
+		super.setWeight(from, to, weight);
+		storeWeights();
+	}
+	
+	@Override
+	public Precision getPrecision() {
+		return Precision.FLOAT;
+	}
+}
@@ -0,0 +1,173 @@
+package neuralnetwork;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import evolution.Genome;
+
+/**
+ * Builds networks for genomes, remembering the structure of recently built
+ * networks by the genome's topology signature.  Most children in a generation
+ * only have their weights mutated, so their network is made by filling in a
+ * new weight array for a structure that was already worked out for a parent.
+ *
+ * Feed-forward networks leave out the nodes that can't affect any output (see
+ * NeuralNetworkBuilder.buildPruned), so only their inputs and outputs should
+ * be used.
+ *
+ * Networks that are given back with release are kept in a pool by capacity,
+ * and reset for later genomes instead of allocating new ones.  Each capacity
+ * keeps only as many networks as can be in use at once, and capacities are
+ * powers of two, so the pool stays small however the networks' sizes drift.
+ */
+public class NetworkCache {
+	
+	private static final int CACHE_SIZE = 256;
+	
+	private final Map<String, Integer> inputs;
+	private final Map<String, Integer> outputs;
+	private final Activation activation;
+	private final Precision precision;
+	
+	private final Map<Long, Topology> topologies = new LinkedHashMap<Long, Topology>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Topology> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	
+	// Released networks, by the number of nodes they have room for, and how many are kept for each capacity
+	private final Map<Integer, ArrayDeque<NeuralNetwork>> pool = new HashMap<Integer, ArrayDeque<NeuralNetwork>>();
+	private final int poolSize;
+	
+	private int hits = 0;
+	private int misses = 0;
+	
+	/**
+	 * Make a cache for double precision networks using the exact activation function
+	 * @param inputs	Map for naming the input nodes
+	 * @param outputs	Map for naming the output nodes
+	 */
+	public NetworkCache( Map<String, Integer> inputs, Map<String, Integer> outputs ) {
+		this(inputs, outputs, Activation.EXACT, Precision.DOUBLE);
+	}
+	
+	/**
+	 * Make a cache that pools a network of each capacity for every processor
+	 * @param inputs		Map for naming the input nodes
+	 * @param outputs		Map for naming the output nodes
+	 * @param activation	The activation function for the nodes
+	 * @param precision		How the networks store their weights
+	 */
+	public NetworkCache( Map<String, Integer> inputs, Map<String, Integer> outputs, Activation activation, Precision precision ) {
+		this(inputs, outputs, activation, precision, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 *
+	 * @param inputs		Map for naming the input nodes
+	 * @param outputs		Map for naming the output nodes
+	 * @param activation	The activation function for the nodes
+	 * @param precision		How the networks store their weights
+	 * @param poolSize		The number of released networks kept for each capacity,
+	 * 						usually the number of threads evaluating networks at once
+	 */
+	public NetworkCache( Map<String, Integer> inputs, Map<String, Integer> outputs, Activation activation, Precision precision, int poolSize ) {
+		this.inputs = inputs;
+		this.outputs = outputs;
+		this.activation = activation;
+		this.precision = precision;
+		this.poolSize = poolSize;
+	}
+	
+	/**
+	 * Build the network for a genome, reusing the structure of an earlier
+	 * genome with the same topology if there is one, and a released network
+	 * if there is one with room for it
+	 * @param genome	The genome representing the network
+	 * @return			The constructed neural network
+	 */
+	public NeuralNetwork build( Genome genome ) {
+		long signature = genome.getTopologySignature();
+		Topology topology;
+		synchronized( topologies ) {
+			topology = topologies.get(signature);
+		}
+		
+		if( topology != null && topology.matches(genome) ) {
+			double[] weights = topology.weights(genome);
+			if( weights != null ) {
+				synchronized( topologies ) {
+					hits++;
+				}
+				return build(topology, weights);
+			}
+		}
+		
+		// a new structure, or a weight has changed to or from zero
+		topology = new Topology(genome, inputs, outputs);
+		synchronized( topologies ) {
+			misses++;
+			topologies.put(signature, topology);
+		}
+		return build(topology, topology.weights(genome));
+	}
+	
+	private NeuralNetwork build( Topology topology, double[] weights ) {
+		NeuralNetwork network = null;
+		synchronized( pool ) {
+			ArrayDeque<NeuralNetwork> networks = pool.get(NeuralNetwork.capacity(topology.numNodes));
+			if( networks != null ) {
+				network = networks.poll();
+			}
+		}
+		if( network == null ) {
+			return NeuralNetworkBuilder.build(topology, weights, inputs, outputs, activation, precision);
+		}
+		network.reset(topology.numNodes, topology.inStart, topology.inFrom, weights, topology.order, topology.renumber(inputs), topology.renumber(outputs));
+		return network;
+	}
+	
+	/**
+	 * Give back a network built by this cache once it is no longer needed, so
+	 * that it can be reused for another genome.  It is dropped instead if
+	 * enough networks of its capacity are pooled already.  The network must not
+	 * be used after it is released.
+	 * @param network	The network to release
+	 */
+	public void release( NeuralNetwork network ) {
+		// filed under its capacity rounded up to a power of two, which reset grows it to if it needs more room
+		Integer capacity = NeuralNetwork.capacity(network.getCapacity());
+		synchronized( pool ) {
+			ArrayDeque<NeuralNetwork> networks = pool.get(capacity);
+			if( networks == null ) {
+				networks = new ArrayDeque<NeuralNetwork>();
+				pool.put(capacity, networks);
+			}
+			if( networks.size() < poolSize ) {
+				networks.push(network);
+			}
+		}
+	}
+	
+	/**
+	 * @return	The number of networks built by only filling in their weights
+	 */
+	public int getHits() {
+		synchronized( topologies ) {
+			return hits;
+		}
+	}
+	
+	/**
+	 * @return	The number of networks whose structure had to be worked out
+	 */
+	public int getMisses() {
+		synchronized( topologies ) {
+			return misses;
+		}
+	}
+}
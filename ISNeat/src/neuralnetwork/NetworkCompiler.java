@@ -0,0 +1,454 @@
+package neuralnetwork;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles networks into generated classes, so the JIT sees every node index
+ * as a constant and can evaluate the network without any loops or lookups of
+ * the connections' end points.  The weights are read from the network's own
+ * weight array, at indices that are also built in.
+ *
+ * Compiling takes far longer than a few updates, so networks only compile
+ * themselves once they have been updated many times.  Kernels are cached by
+ * the network's structure alone, so every network with the same structure
+ * shares one kernel, such as the children of a genome that only had their
+ * weights mutated, or a champion evaluated again in the next generation.
+ *
+ * Each class is defined by its own class loader so that it can be unloaded
+ * once it falls out of the cache.
+ */
+class NetworkCompiler {
+	
+	private static final int CACHE_SIZE = 256;
+	
+	// HotSpot doesn't JIT compile methods longer than this, so the code is split into chunks below it
+	private static final int MAX_CHUNK_LENGTH = 7000;
+	private static final int HUGE_METHOD_LIMIT = 8000;
+	
+	private static final String KERNEL = "neuralnetwork/CompiledKernel";
+	private static final String ACTIVATION = "neuralnetwork/Activation";
+	private static final String STATES = "[D";
+	
+	private static final Map<Key, CompiledKernel> cache = new LinkedHashMap<Key, CompiledKernel>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, CompiledKernel> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	
+	private static int nextClassId = 0;
+	
+	private NetworkCompiler() {
+		
+	}
+	
+	/**
+	 * Get the compiled kernel for a network, compiling it if it isn't cached
+	 * 
+	 * @param numNodes		The number of nodes
+	 * @param inStart		The start of each node's incoming connections
+	 * @param inFrom		The source node of each connection
+	 * @param order			The evaluation order, or null if the network is recurrent
+	 * @param activation	The activation function
+	 * @return				The kernel, or null if the network is too large to compile
+	 */
+	static CompiledKernel compile( int numNodes, int[] inStart, int[] inFrom, int[] order, Activation activation ) {
+		Key key = new Key(numNodes, inStart, inFrom, order, activation);
+		synchronized( cache ) {
+			if( cache.containsKey(key) ) {
+				return cache.get(key);
+			}
+		}
+		CompiledKernel kernel = generate(key);
+		synchronized( cache ) {
+			cache.put(key, kernel);
+		}
+		return kernel;
+	}
+	
+	private static CompiledKernel generate( Key key ) {
+		String className;
+		synchronized( cache ) {
+			className = "neuralnetwork/generated/Kernel" + nextClassId++;
+		}
+		try {
+			byte[] classFile = new ClassFile(className, key).toBytes();
+			if( classFile == null ) {
+				return null;
+			}
+			Class<?> kernelClass = new KernelLoader().define(className.replace('/', '.'), classFile);
+			return (CompiledKernel) kernelClass.getConstructor().newInstance();
+		} catch( ReflectiveOperationException e ) {
+			throw new IllegalStateException("Could not load a compiled network", e);
+		} catch( IOException e ) {
+			throw new IllegalStateException("Could not write a compiled network", e);
+		}
+	}
+	
+	private static class KernelLoader extends ClassLoader {
+		KernelLoader() {
+			super(NetworkCompiler.class.getClassLoader());
+		}
+		
+		Class<?> define( String name, byte[] classFile ) {
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+	
+	/**
+	 * A copy of everything that goes into a kernel, for caching
+	 */
+	private static class Key {
+		final int numNodes;
+		final int[] inStart;
+		final int[] inFrom;
+		final int[] order;
+		final Activation activation;
+		final int hash;
+		
+		Key( int numNodes, int[] inStart, int[] inFrom, int[] order, Activation activation ) {
+			this.numNodes = numNodes;
+			this.inStart = inStart.clone();
+			this.inFrom = inFrom.clone();
+			this.order = order == null ? null : order.clone();
+			this.activation = activation;
+			this.hash = 31 * (31 * Arrays.hashCode(this.inFrom) + Arrays.hashCode(this.inStart)) + numNodes;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals( Object other ) {
+			if( !(other instanceof Key) ) {
+				return false;
+			}
+			Key k = (Key) other;
+			return hash == k.hash && numNodes == k.numNodes && activation == k.activation
+					&& Arrays.equals(inStart, k.inStart) && Arrays.equals(inFrom, k.inFrom)
+					&& Arrays.equals(order, k.order);
+		}
+	}
+	
+	/**
+	 * Writes the class file for a kernel.  The generated class looks like:
+	 * 
+	 *   public final class KernelN implements CompiledKernel {
+	 *       public void step(double[] src, double[] dst, double[] w) { s0(src, dst, w); s1(src, dst, w); ... }
+	 *       public void updateInOrder(double[] states, double[] w) { o0(states, w); ... }
+	 *       private static void s0(double[] src, double[] dst, double[] w) {
+	 *           dst[5] = Activation.EXACT.apply(0.0 + src[0] * w[0] + src[3] * w[1]);
+	 *           dst[6] = src[6];
+	 *           ...
+	 *       }
+	 *       ...
+	 *   }
+	 * 
+	 * None of the code branches, so no stack map frames are needed.
+	 */
+	private static class ClassFile {
+		
+		private static final int ACC_PUBLIC = 0x0001;
+		private static final int ACC_PRIVATE = 0x0002;
+		private static final int ACC_STATIC = 0x0008;
+		private static final int ACC_FINAL = 0x0010;
+		private static final int ACC_SUPER = 0x0020;
+		
+		private static final int ICONST_0 = 0x03;
+		private static final int BIPUSH = 0x10;
+		private static final int SIPUSH = 0x11;
+		private static final int LDC_W = 0x13;
+		private static final int DCONST_0 = 0x0e;
+		private static final int ALOAD_0 = 0x2a;
+		private static final int ALOAD_1 = 0x2b;
+		private static final int ALOAD_2 = 0x2c;
+		private static final int ALOAD_3 = 0x2d;
+		private static final int DALOAD = 0x31;
+		private static final int DASTORE = 0x52;
+		private static final int DADD = 0x63;
+		private static final int DMUL = 0x6b;
+		private static final int RETURN = 0xb1;
+		private static final int GETSTATIC = 0xb2;
+		private static final int INVOKEVIRTUAL = 0xb6;
+		private static final int INVOKESPECIAL = 0xb7;
+		private static final int INVOKESTATIC = 0xb8;
+		
+		private final String className;
+		private final Key network;
+		
+		// constant pool entries, and the index of each one by a description of its contents
+		private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+		private final DataOutputStream pool = new DataOutputStream(poolBytes);
+		private final Map<String, Integer> poolIndices = new HashMap<String, Integer>();
+		private int poolCount = 1;
+		
+		private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+		private final DataOutputStream methods = new DataOutputStream(methodBytes);
+		private int methodCount = 0;
+		
+		ClassFile( String className, Key network ) {
+			this.className = className;
+			this.network = network;
+		}
+		
+		/**
+		 * @return	The class file, or null if the network is too large
+		 */
+		byte[] toBytes() throws IOException {
+			// constructor
+			ByteArrayOutputStream init = new ByteArrayOutputStream();
+			init.write(ALOAD_0);
+			init.write(INVOKESPECIAL);
+			writeShort(init, methodRef("java/lang/Object", "<init>", "()V"));
+			init.write(RETURN);
+			addMethod(ACC_PUBLIC, "<init>", "()V", 1, 1, init.toByteArray());
+			
+			// step: every node, in chunks
+			List<Integer> stepChunks = new ArrayList<Integer>();
+			int[] allNodes = new int[network.numNodes];
+			for( int t = 0; t < allNodes.length; t++ ) {
+				allNodes[t] = t;
+			}
+			if( !addChunks("s", allNodes, true, stepChunks) ) {
+				return null;
+			}
+			addCaller("step", chunkDescriptor(true), "s", stepChunks, true);
+			
+			// updateInOrder: the ordered nodes, in place
+			List<Integer> orderChunks = new ArrayList<Integer>();
+			if( network.order != null && !addChunks("o", network.order, false, orderChunks) ) {
+				return null;
+			}
+			addCaller("updateInOrder", chunkDescriptor(false), "o", orderChunks, false);
+			
+			int thisClass = classRef(className);
+			int superClass = classRef("java/lang/Object");
+			int kernelInterface = classRef(KERNEL);
+			if( poolCount > 0xffff ) {
+				return null;
+			}
+			
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(52);	// Java 8
+			out.writeShort(poolCount);
+			poolBytes.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(kernelInterface);
+			out.writeShort(0);	// fields
+			out.writeShort(methodCount);
+			methodBytes.writeTo(out);
+			out.writeShort(0);	// attributes
+			return bytes.toByteArray();
+		}
+		
+		/**
+		 * Add static methods that update the given nodes, splitting them into chunks the JIT will compile.
+		 * @param prefix	The method name prefix
+		 * @param nodes		The nodes to update, in order
+		 * @param step		True to read src and write dst, false to update states in place
+		 * @param chunks	Filled with the number of each chunk method
+		 * @return			False if a single node's code is too long to be compiled
+		 */
+		private boolean addChunks( String prefix, int[] nodes, boolean step, List<Integer> chunks ) throws IOException {
+			ByteArrayOutputStream code = new ByteArrayOutputStream();
+			for( int i = 0; i < nodes.length; i++ ) {
+				ByteArrayOutputStream node = nodeCode(nodes[i], step);
+				if( node.size() + 1 > HUGE_METHOD_LIMIT ) {
+					return false;
+				}
+				if( code.size() > 0 && code.size() + node.size() + 1 > MAX_CHUNK_LENGTH ) {
+					addChunk(prefix, step, code, chunks);
+					code = new ByteArrayOutputStream();
+				}
+				node.writeTo(code);
+			}
+			if( code.size() > 0 ) {
+				addChunk(prefix, step, code, chunks);
+			}
+			return true;
+		}
+		
+		private void addChunk( String prefix, boolean step, ByteArrayOutputStream code, List<Integer> chunks ) throws IOException {
+			code.write(RETURN);
+			int number = chunks.size();
+			chunks.add(number);
+			// the deepest stack is dst, index, activation, sum, src, index -> value, weights, index
+			addMethod(ACC_PRIVATE | ACC_STATIC, prefix + number, chunkDescriptor(step), 9, step ? 3 : 2, code.toByteArray());
+		}
+		
+		/**
+		 * (src, dst, weights) for a step, (states, weights) for an update in place
+		 */
+		private static String chunkDescriptor( boolean step ) {
+			return step ? "(" + STATES + STATES + STATES + ")V" : "(" + STATES + STATES + ")V";
+		}
+		
+		/**
+		 * Code to update one node
+		 */
+		private ByteArrayOutputStream nodeCode( int t, boolean step ) throws IOException {
+			ByteArrayOutputStream code = new ByteArrayOutputStream();
+			int src = ALOAD_0;
+			int dst = step ? ALOAD_1 : ALOAD_0;
+			int weights = step ? ALOAD_2 : ALOAD_1;
+			int start = network.inStart[t];
+			int end = network.inStart[t+1];
+			
+			code.write(dst);
+			pushInt(code, t);
+			if( start == end ) {
+				// nothing feeds into this node, keep its state
+				code.write(src);
+				pushInt(code, t);
+				code.write(DALOAD);
+			} else {
+				code.write(GETSTATIC);
+				writeShort(code, fieldRef(ACTIVATION, network.activation.name(), "L" + ACTIVATION + ";"));
+				code.write(DCONST_0);
+				for( int c = start; c < end; c++ ) {
+					code.write(src);
+					pushInt(code, network.inFrom[c]);
+					code.write(DALOAD);
+					code.write(weights);
+					pushInt(code, c);
+					code.write(DALOAD);
+					code.write(DMUL);
+					code.write(DADD);
+				}
+				code.write(INVOKEVIRTUAL);
+				writeShort(code, methodRef(ACTIVATION, "apply", "(D)D"));
+			}
+			code.write(DASTORE);
+			return code;
+		}
+		
+		/**
+		 * Add an interface method that calls each chunk in turn
+		 */
+		private void addCaller( String name, String descriptor, String prefix, List<Integer> chunks, boolean step ) throws IOException {
+			ByteArrayOutputStream code = new ByteArrayOutputStream();
+			for( int number : chunks ) {
+				code.write(ALOAD_1);
+				code.write(ALOAD_2);
+				if( step ) {
+					code.write(ALOAD_3);
+				}
+				code.write(INVOKESTATIC);
+				writeShort(code, methodRef(className, prefix + number, chunkDescriptor(step)));
+			}
+			code.write(RETURN);
+			addMethod(ACC_PUBLIC, name, descriptor, step ? 3 : 2, step ? 4 : 3, code.toByteArray());
+		}
+		
+		private void addMethod( int access, String name, String descriptor, int maxStack, int maxLocals, byte[] code ) throws IOException {
+			methods.writeShort(access);
+			methods.writeShort(utf8(name));
+			methods.writeShort(utf8(descriptor));
+			methods.writeShort(1);
+			methods.writeShort(utf8("Code"));
+			methods.writeInt(12 + code.length);
+			methods.writeShort(maxStack);
+			methods.writeShort(maxLocals);
+			methods.writeInt(code.length);
+			methods.write(code);
+			methods.writeShort(0);	// exception table
+			methods.writeShort(0);	// attributes
+			methodCount++;
+		}
+		
+		private void pushInt( ByteArrayOutputStream code, int value ) throws IOException {
+			if( value >= -1 && value <= 5 ) {
+				code.write(ICONST_0 + value);
+			} else if( value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE ) {
+				code.write(BIPUSH);
+				code.write(value);
+			} else if( value >= Short.MIN_VALUE && value <= Short.MAX_VALUE ) {
+				code.write(SIPUSH);
+				writeShort(code, value);
+			} else {
+				code.write(LDC_W);
+				writeShort(code, constant("I", 3, value));
+			}
+		}
+		
+		private int constant( String type, int tag, int value ) throws IOException {
+			String key = type + value;
+			Integer index = poolIndices.get(key);
+			if( index == null ) {
+				index = poolCount++;
+				pool.writeByte(tag);
+				pool.writeInt(value);
+				poolIndices.put(key, index);
+			}
+			return index;
+		}
+		
+		private int utf8( String text ) throws IOException {
+			String key = "U" + text;
+			Integer index = poolIndices.get(key);
+			if( index == null ) {
+				index = poolCount++;
+				pool.writeByte(1);
+				pool.writeUTF(text);
+				poolIndices.put(key, index);
+			}
+			return index;
+		}
+		
+		private int classRef( String name ) throws IOException {
+			return reference("C", 7, utf8(name), -1);
+		}
+		
+		private int fieldRef( String owner, String name, String descriptor ) throws IOException {
+			return reference("F", 9, classRef(owner), nameAndType(name, descriptor));
+		}
+		
+		private int methodRef( String owner, String name, String descriptor ) throws IOException {
+			return reference("M", 10, classRef(owner), nameAndType(name, descriptor));
+		}
+		
+		private int nameAndType( String name, String descriptor ) throws IOException {
+			return reference("N", 12, utf8(name), utf8(descriptor));
+		}
+		
+		/**
+		 * A constant pool entry made of one or two other entries
+		 */
+		private int reference( String type, int tag, int first, int second ) throws IOException {
+			String key = type + first + ":" + second;
+			Integer index = poolIndices.get(key);
+			if( index == null ) {
+				index = poolCount++;
+				pool.writeByte(tag);
+				pool.writeShort(first);
+				if( second >= 0 ) {
+					pool.writeShort(second);
+				}
+				poolIndices.put(key, index);
+			}
+			return index;
+		}
+		
+		private static void writeShort( ByteArrayOutputStream code, int value ) {
+			code.write(value >>> 8);
+			code.write(value);
+		}
+	}
+}
@@ -1,98 +1,991 @@
 package neuralnetwork;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * A neural network stored in compressed sparse row form.  The incoming
+ * connections of each node are stored contiguously, sorted by source node,
+ * so a single update costs time proportional to the number of connections
+ * rather than the square of the number of nodes.
+ *
+ * Networks without cycles also keep an evaluation order, which lets them
+ * reach their steady state in a single pass instead of repeated updates.
+ *
+ * Inputs and outputs are addressed by index, ordered by node id.  Look the
+ * indices up by name once with getInputIndex/getOutputIndex and then use the
+ * array based methods, which don't allocate anything.
+ *
+ * A whole data set can be run through a feed-forward network at once with
+ * updateBatch, which keeps each node's state for every row side by side so
+ * that each weight is loaded once per batch rather than once per row.  Its
+ * weighted sums run over contiguous rows with no dependencies between them,
+ * which leaves HotSpot free to vectorize them, though nothing here checks
+ * that it does.  The activation function is still applied one row at a time.
+ *
+ * A network whose inputs change slowly can be updated incrementally, which
+ * only recomputes the nodes downstream of states that actually changed.
+ *
+ * Very large networks split each update across the common fork-join pool,
+ * unless they are already being updated on one of a fork-join pool's threads.
+ *
+ * A network that is updated many times, like one playing a long episode,
+ * compiles itself into a generated class (see NetworkCompiler) and uses that
+ * for its updates from then on.
+ */
 public class NeuralNetwork {
-
+	
+	// Number of updates before a network compiles itself
+	public static final int COMPILE_THRESHOLD = 1000;
+	
+	// Number of connections at which a step is split across the fork-join pool, and roughly how many each thread takes
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 20000;
+	private static final int PARALLEL_CHUNK = 4096;
+	
+	// Flags for the result of updating part of a network
+	private static final int CHANGED = 1;
+	private static final int REPEATED = 2;
+	
+	private int numNodes;
+	
+	// The current states, and a spare buffer that the next update is written into before they swap.
+	// A network that has been reset may have room for more nodes than it uses.
 	private double[] states;
-	private double[][] connections; // [from][to]
+	private double[] nextStates;
+	
+	// The incoming connections of node t occupy indices [inStart[t], inStart[t+1]).
+	// Networks with reduced precision weights keep their own weight array and leave inWeight null.
+	int[] inStart;
+	int[] inFrom;
+	double[] inWeight;
+	
+	// Order to evaluate nodes in for a single pass, or null if the network is recurrent
+	private int[] order;
+	
+	private final Activation activation;
+	
+	// How much a state may change and still count as steady, and whether to stop on a two step cycle
+	private double tolerance = 0;
+	private boolean detectOscillation = false;
+	
+	// Networks with at least this many connections update their nodes in parallel
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	// The tasks a parallel step is split into, made once for the network's structure,
+	// and the buffer and cycle check of the step they are running
+	private StepTask stepTask = null;
+	private double[] stepStates;
+	private boolean stepCheckCycle;
+	
+	// The compiled version of this network, once it has been updated enough to be worth compiling
+	private CompiledKernel kernel = null;
+	private boolean compileAttempted = false;
+	private int updateCount = 0;
+	
+	// Incremental updates: the outgoing connections of node n go to outTo[outStart[n] .. outStart[n+1]),
+	// and the stale nodes are the ones with a source that changed since they were last computed
+	private boolean incremental = false;
+	private int[] outStart;
+	private int[] outTo;
+	private boolean[] stale;
+	private int[] staleNodes;
+	private int numStale = 0;
+	// The nodes being computed by the current incremental update, and their new states
+	private int[] updatingNodes;
+	private double[] staleValues;
 	
-	private Map<String, Integer> inputs;
-	private Map<String, Integer> outputs;
+	// Input and output names and their nodes, ordered by node id
+	private String[] inputNames;
+	private int[] inputNodes;
+	private String[] outputNames;
+	private int[] outputNodes;
 	
+	// Node states for every row of a batch, [node * rows + row]
+	private double[] batchStates = new double[0];
+	// Weighted sums for one node for every row of a batch
+	private double[] batchSums = new double[0];
+	// The states from two steps back, while a compiled step overwrites them
+	private double[] cycleStates = new double[0];
+	
+	/**
+	 * Constructor for an unconnected network
+	 * @param numNodes	The number of nodes in the network
+	 * @param inputs	Map for naming the input nodes
+	 * @param outputs	Map for naming the output nodes
+	 */
 	public NeuralNetwork(int numNodes, Map<String, Integer> inputs, Map<String, Integer> outputs) {
-		connections = new double[numNodes][numNodes];
+		this(numNodes, inputs, outputs, Activation.EXACT);
+	}
+	
+	/**
+	 * Constructor for an unconnected network
+	 * @param numNodes		The number of nodes in the network
+	 * @param inputs		Map for naming the input nodes
+	 * @param outputs		Map for naming the output nodes
+	 * @param activation	The activation function for the nodes
+	 */
+	public NeuralNetwork(int numNodes, Map<String, Integer> inputs, Map<String, Integer> outputs, Activation activation) {
+		this(numNodes, new int[numNodes+1], new int[0], new double[0], new int[0], inputs, outputs, activation);
+	}
+	
+	/**
+	 * Constructor for a network with its connections already in compressed sparse row form.
+	 * Each node's connections must be sorted by source node, without duplicates or zero weights.
+	 * The order must be null if the network is recurrent.
+	 */
+	NeuralNetwork(int numNodes, int[] inStart, int[] inFrom, double[] inWeight, int[] order, Map<String, Integer> inputs, Map<String, Integer> outputs, Activation activation) {
+		this.numNodes = numNodes;
+		this.inStart = inStart;
+		this.inFrom = inFrom;
+		this.inWeight = inWeight;
+		this.order = order;
+		this.activation = activation;
 		states = new double[numNodes];
-		this.inputs = inputs;
-		this.outputs = outputs;
+		nextStates = new double[numNodes];
+		nameNodes(inputs, outputs);
+	}
+		
+	/**
+	 * Reuse this network for new connections and weights, leaving it as if it
+	 * had just been constructed with them.  The state, batch and incremental
+	 * update arrays are kept when they are big enough, so a pool of networks
+	 * (see NetworkCache) can be evaluated over and over without allocating.
+	 * Each node's connections must be sorted by source node, without duplicates
+	 * or zero weights, and the order must be null if the network is recurrent.
+	 */
+	void reset(int numNodes, int[] inStart, int[] inFrom, double[] inWeight, int[] order, Map<String, Integer> inputs, Map<String, Integer> outputs) {
+		this.numNodes = numNodes;
+		this.inStart = inStart;
+		this.inFrom = inFrom;
+		this.inWeight = inWeight;
+		this.order = order;
+		if( states.length < numNodes ) {
+			states = new double[capacity(numNodes)];
+			nextStates = new double[states.length];
+		} else {
+			Arrays.fill(states, 0.0);
+			Arrays.fill(nextStates, 0.0);
+		}
+		
+		tolerance = 0;
+		detectOscillation = false;
+		parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+		stepTask = null;
+		kernel = null;
+		compileAttempted = false;
+		updateCount = 0;
+		incremental = false;
+		nameNodes(inputs, outputs);
+	}
+	
+	/**
+	 * The number of nodes a reset network makes room for, a power of two so
+	 * that networks of similar sizes can be reused for each other
+	 * @param numNodes	The number of nodes needed
+	 * @return			The capacity
+	 */
+	static int capacity(int numNodes) {
+		return numNodes <= 1 ? 1 : Integer.highestOneBit(numNodes - 1) << 1;
+	}
+	
+	/**
+	 * @return	The number of nodes this network has room for without allocating
+	 */
+	int getCapacity() {
+		return states.length;
+	}
+	
+	/**
+	 * Find the node of each input and output, ordered by node id.  The name
+	 * arrays are kept when the names and their order haven't changed.
+	 */
+	private void nameNodes(Map<String, Integer> inputs, Map<String, Integer> outputs) {
+		if( inputNames == null || !inOrder(inputNames, inputs) ) {
+			inputNames = sortedNames(inputs);
+			inputNodes = new int[inputNames.length];
+		}
+		for( int i = 0; i < inputNames.length; i++ ) {
+			inputNodes[i] = inputs.get(inputNames[i]);
+		}
+		if( outputNames == null || !inOrder(outputNames, outputs) ) {
+			outputNames = sortedNames(outputs);
+			outputNodes = new int[outputNames.length];
+		}
+		for( int i = 0; i < outputNames.length; i++ ) {
+			outputNodes[i] = outputs.get(outputNames[i]);
+		}
+	}
+	
+	/**
+	 * @return	True if the names are exactly the named nodes, in order of node id
+	 */
+	private static boolean inOrder( String[] names, Map<String, Integer> nodes ) {
+		if( names.length != nodes.size() ) {
+			return false;
+		}
+		int last = -1;
+		for( String name : names ) {
+			Integer node = nodes.get(name);
+			if( node == null || node < last ) {
+				return false;
+			}
+			last = node;
+		}
+		return true;
+	}
+	
+	private static String[] sortedNames( final Map<String, Integer> nodes ) {
+		List<String> names = new ArrayList<String>(nodes.keySet());
+		names.sort(new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Integer.compare(nodes.get(a), nodes.get(b));
+			}
+		});
+		return names.toArray(new String[0]);
 	}
 	
 	public void updateOnce() {
-		// copy states array
-		double[] newStates = new double[states.length];
-		for( int t = 0; t < states.length; t++ ) {
-			newStates[t] = 0.0;
+		step(false);
+	}
+	
+	/**
+	 * Update every node once, writing the new states into the spare buffer and
+	 * then swapping the buffers, so nothing is allocated.  States within the
+	 * tolerance of their old values count as unchanged.
+	 * 
+	 * Right after a step the spare buffer holds the states from one step back,
+	 * so before overwriting it the new states can also be compared with the
+	 * states from two steps back to spot a network flipping between two states.
+	 * 
+	 * @param checkCycle	True if the spare buffer holds the previous step's states
+	 * 						and a repeat of them should count as steady
+	 * @return				True if the network is still changing
+	 */
+	private boolean step(boolean checkCycle) {
+		if( incremental ) {
+			if( !detectOscillation ) {
+				// not counted towards compiling, see setIncremental
+				return incrementalStep();
+			}
+			// the spare buffer isn't kept up to date incrementally, so do a full step
+			// and recompute everything on the next incremental one
+			markAllStale();
 		}
+		double[] newStates = nextStates;
+		// a network updated on a pool thread is already running alongside others, like
+		// the Evolver's evaluations, and waiting on the pool from there would only hold up a thread
+		if( inFrom.length >= parallelThreshold && ForkJoinPool.getCommonPoolParallelism() > 1 && !ForkJoinTask.inForkJoinPool() ) {
+			if( stepTask == null ) {
+				stepTask = new StepTask(0, numNodes);
+			}
+			stepStates = newStates;
+			stepCheckCycle = checkCycle;
+			// the task finished the last step, so it has to be reset before it can run again
+			stepTask.reinitialize();
+			ForkJoinPool.commonPool().invoke(stepTask);
+			nextStates = states;
+			states = newStates;
+			return (stepTask.flags & CHANGED) != 0 && (stepTask.flags & REPEATED) == 0;
+		}
+		countUpdate();
+		if( kernel != null ) {
+			if( checkCycle ) {
+				if( cycleStates.length < numNodes ) {
+					cycleStates = new double[states.length];
+				}
+				System.arraycopy(newStates, 0, cycleStates, 0, numNodes);
+			}
+			kernel.step(states, newStates, inWeight);
+			boolean changed = false;
+			boolean repeated = checkCycle;
+			for( int t = 0; t < numNodes && (!changed || repeated); t++ ) {
+				if( !(Math.abs(newStates[t] - states[t]) <= tolerance) ) {
+					changed = true;
+				}
+				if( repeated && !(Math.abs(newStates[t] - cycleStates[t]) <= tolerance) ) {
+					repeated = false;
+				}
+			}
+			nextStates = states;
+			states = newStates;
+			return changed && !repeated;
+		}
+		
+		int flags = stepNodes(0, numNodes, newStates, checkCycle);
 		
-		for( int t = 0; t < states.length; t++ ) {
+		// Swap the buffers, the old states become the spare
+		nextStates = states;
+		states = newStates;
+		return (flags & CHANGED) != 0 && (flags & REPEATED) == 0;
+	}
+	
+	/**
+	 * Update the nodes in [lo, hi) for a step
+	 * @param lo			The first node to update
+	 * @param hi			One past the last node to update
+	 * @param newStates		The array to write the new states into
+	 * @param checkCycle	True if newStates holds the previous step's states, see step
+	 * @return				CHANGED if any of the nodes changed, and REPEATED if
+	 * 						checking for a cycle and all of them repeated
+	 */
+	private int stepNodes(int lo, int hi, double[] newStates, boolean checkCycle) {
+		boolean changed = false;
+		boolean repeated = checkCycle;
+		
+		for( int t = lo; t < hi; t++ ) {
 			// update the newState node t using the values from the old state and connection weights.
-			double sum = 0;
-			boolean isUpdated = false;
-			for( int f = 0; f < states.length; f++ ) {
-				if( connections[f][t] != 0 ) {
-					isUpdated = true;
-					sum += states[f] * connections[f][t];
-				}
-			}
-			if( isUpdated ) {
-				newStates[t] = 1 / (1 + Math.pow(Math.E, -4.9 * sum));
+			int start = inStart[t];
+			int end = inStart[t+1];
+			double value;
+			if( start == end ) {
+				// nothing feeds into this node
+				value = states[t];
 			} else {
-				newStates[t] = states[t];
+				value = activation.apply(weightedSum(states, t));
 			}
+			// written so that NaN always counts as a change
+			if( !changed && !(Math.abs(value - states[t]) <= tolerance) ) {
+				changed = true;
+			}
+			if( repeated && !(Math.abs(value - newStates[t]) <= tolerance) ) {
+				repeated = false;
+			}
+			newStates[t] = value;
 		}
+		return (changed ? CHANGED : 0) | (repeated ? REPEATED : 0);
+	}
 		
-		// Overwrite old states
-		states = newStates;
+	/**
+	 * Updates a range of nodes for a step, split in half by number of
+	 * connections until the pieces are small enough to be worth a thread.
+	 * The pieces only depend on the network's structure, so they are made
+	 * once and run again on every step.
+	 */
+	private class StepTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int lo;
+		private final int hi;
+		// The two halves of the range, or null if it is updated on one thread
+		private final StepTask left;
+		private final StepTask right;
+		private int flags;
+		
+		StepTask(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+			if( hi - lo < 2 || inStart[hi] - inStart[lo] <= PARALLEL_CHUNK ) {
+				left = null;
+				right = null;
+				return;
+			}
+			// split where half of the range's connections are on each side
+			int index = Arrays.binarySearch(inStart, lo, hi, (inStart[lo] + inStart[hi]) / 2);
+			int mid = Math.min(Math.max(index >= 0 ? index : -(index + 1), lo + 1), hi - 1);
+			left = new StepTask(lo, mid);
+			right = new StepTask(mid, hi);
+		}
+		
+		@Override
+		protected void compute() {
+			if( left == null ) {
+				flags = stepNodes(lo, hi, stepStates, stepCheckCycle);
+				return;
+			}
+			left.reinitialize();
+			right.reinitialize();
+			invokeAll(left, right);
+			flags = ((left.flags | right.flags) & CHANGED) | (left.flags & right.flags & REPEATED);
+		}
 	}
 	
-	public void updateAll() {
+	/**
+	 * Update the network until it is steady, with enough updates for every node to be reached.
+	 * @return	The number of updates done
+	 */
+	public int updateAll() {
 		// no matter how many nodes there are, this is guaranteed to update all of them at least once
-		updateUntilSteady(states.length);
+		return updateUntilSteady(numNodes);
 	}
 	
-	public void updateUntilSteady(int max) {
+	/**
+	 * Update the network until its states stop changing, or until max updates have been done.
+	 * States count as unchanged when they are within the convergence tolerance, and when
+	 * oscillation detection is on, a network that returns to its states from two updates
+	 * ago also counts as steady.
+	 * Feed-forward networks are instead evaluated in a single pass, which gives the
+	 * steady state directly regardless of max.
+	 * @param max	The maximum number of updates for a recurrent network
+	 * @return		The number of updates done, 1 for a single pass
+	 */
+	public int updateUntilSteady(int max) {
+		if( order != null ) {
+			updateInOrder();
+			return 1;
+		}
 		int count = 0;
-		double[] oldStates = null;
+		boolean changing;
 		do {
-			oldStates = states.clone();
-			updateOnce();
+			// the spare buffer only holds the previous states once this call has made a step
+			changing = step(detectOscillation && count > 0);
 			count++;
-		} while( stateHasChanged(oldStates) && count < max );
+		} while( changing && count < max );
+		return count;
+	}
+	
+	private void countUpdate() {
+		if( kernel == null && !compileAttempted && ++updateCount >= COMPILE_THRESHOLD ) {
+			compile();
+		}
+	}
+	
+	/**
+	 * Compile this network into a generated class now, rather than waiting until
+	 * it has been updated COMPILE_THRESHOLD times.  Networks with reduced
+	 * precision weights aren't compiled, so that they keep their own arithmetic.
+	 * @return	True if the network was compiled, false if it is too large
+	 */
+	public boolean compile() {
+		compileAttempted = true;
+		if( inWeight == null ) {
+			return false;
+		}
+		kernel = NetworkCompiler.compile(numNodes, inStart, inFrom, order, activation);
+		return kernel != null;
+	}
+	
+	public boolean isCompiled() {
+		return kernel != null;
+	}
+	
+	/**
+	 * Set how close a state has to be to its previous value to count as unchanged
+	 * when updating until steady.  The default is 0, meaning exactly equal.
+	 * @param tolerance	The largest change that still counts as steady
+	 */
+	public void setConvergenceTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+	
+	public double getConvergenceTolerance() {
+		return tolerance;
+	}
+	
+	/**
+	 * Set whether updating until steady should stop when the network flips back
+	 * and forth between two states, since more updates won't settle it.  Off by default.
+	 * @param detectOscillation	True to stop on a two update cycle
+	 */
+	public void setOscillationDetection(boolean detectOscillation) {
+		this.detectOscillation = detectOscillation;
+	}
+	
+	/**
+	 * Set how many connections a network needs before each full update is
+	 * split across the common fork-join pool.  Every node's new state only
+	 * depends on the old states, so the nodes can be updated in any order.
+	 * Parallel updates take the place of the compiled version of the network.
+	 * Networks being updated on a fork-join pool's thread always update on
+	 * that thread alone.
+	 * @param parallelThreshold	The number of connections, or Integer.MAX_VALUE to never update in parallel
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+	
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+	
+	/**
+	 * Update every node once in evaluation order.  Since each node's sources
+	 * have already been updated, this leaves the network in its steady state.
+	 */
+	private void updateInOrder() {
+		if( incremental ) {
+			// not counted towards compiling, see setIncremental
+			incrementalInOrder();
+			return;
+		}
+		countUpdate();
+		if( kernel != null ) {
+			kernel.updateInOrder(states, inWeight);
+			return;
+		}
+		for( int i = 0; i < order.length; i++ ) {
+			int t = order[i];
+			states[t] = activation.apply(weightedSum(states, t));
+		}
+	}
+	
+	/**
+	 * Set whether updates only recompute the nodes with a source whose state
+	 * changed since they were last computed.  This gives exactly the same
+	 * states as a full update, and is cheaper when most inputs stay the same
+	 * from one update to the next.  Incremental updates take the place
+	 * of the compiled version of the network, and don't count towards
+	 * compiling it, since the compiled version always computes every node and
+	 * would throw away what the incremental updates save.  For small networks
+	 * the compiled version is faster even so, and incremental updates only
+	 * pay off once a network has tens of hidden nodes (see NetworkBenchmark).
+	 * Neither task turns them on, since the speed and the obstacle distance
+	 * change on every step of the jumper task, and the car task's recurrent
+	 * networks rarely settle before the next row.  Recurrent networks with
+	 * oscillation detection turned on still do full updates, since spotting a
+	 * cycle needs the states from two updates back.  Off by default.
+	 * @param incremental	True to update incrementally
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+		if( incremental ) {
+			outgoingConnections();
+			// the arrays are kept from one use to the next, since a network may be reset and reused
+			if( stale == null || stale.length < numNodes ) {
+				stale = new boolean[states.length];
+				staleNodes = new int[states.length];
+				updatingNodes = new int[states.length];
+				staleValues = new double[states.length];
+			} else {
+				Arrays.fill(stale, false);
+			}
+			numStale = 0;
+			markAllStale();
+		}
+	}
+	
+	public boolean isIncremental() {
+		return incremental;
+	}
+	
+	/**
+	 * Find the outgoing connections of every node from the incoming ones
+	 */
+	private void outgoingConnections() {
+		if( outStart == null || outStart.length < numNodes + 1 ) {
+			outStart = new int[states.length + 1];
+		} else {
+			Arrays.fill(outStart, 0);
+		}
+		for( int c = 0; c < inFrom.length; c++ ) {
+			outStart[inFrom[c]+1]++;
+		}
+		for( int n = 0; n < numNodes; n++ ) {
+			outStart[n+1] += outStart[n];
+		}
+		if( outTo == null || outTo.length < inFrom.length ) {
+			outTo = new int[inFrom.length];
+		}
+		int[] next = Arrays.copyOf(outStart, numNodes);
+		for( int t = 0; t < numNodes; t++ ) {
+			for( int c = inStart[t]; c < inStart[t+1]; c++ ) {
+				outTo[next[inFrom[c]]++] = t;
+			}
+		}
+	}
+	
+	/**
+	 * Mark a node as needing to be computed on the next incremental update
+	 */
+	private void markStale(int t) {
+		if( !stale[t] ) {
+			stale[t] = true;
+			staleNodes[numStale++] = t;
+		}
+	}
+	
+	/**
+	 * Mark the nodes fed by node n as needing to be computed, since its state changed
+	 */
+	private void markTargetsStale(int n) {
+		for( int c = outStart[n]; c < outStart[n+1]; c++ ) {
+			markStale(outTo[c]);
+		}
+	}
+	
+	private void markAllStale() {
+		for( int t = 0; t < numNodes; t++ ) {
+			if( inStart[t] != inStart[t+1] ) {
+				markStale(t);
+			}
+		}
+	}
+	
+	/**
+	 * Record a state being set from outside, so that incremental updates see it
+	 */
+	private void stateSet(int n, double old) {
+		if( incremental && states[n] != old ) {
+			markTargetsStale(n);
+			if( inStart[n] != inStart[n+1] ) {
+				// a full update would overwrite this node, so an incremental one has to as well
+				markStale(n);
+			}
+		}
+	}
+	
+	/**
+	 * Update the stale nodes from the current states, all at once as in a full step
+	 * @return	True if the network is still changing
+	 */
+	private boolean incrementalStep() {
+		// take the stale list, so that the nodes changed by this update start a new one
+		int[] nodes = staleNodes;
+		int count = numStale;
+		staleNodes = updatingNodes;
+		updatingNodes = nodes;
+		numStale = 0;
+		
+		for( int i = 0; i < count; i++ ) {
+			staleValues[i] = activation.apply(weightedSum(states, nodes[i]));
+		}
+		for( int i = 0; i < count; i++ ) {
+			stale[nodes[i]] = false;
+		}
+		
+		boolean changed = false;
+		for( int i = 0; i < count; i++ ) {
+			int t = nodes[i];
+			double value = staleValues[i];
+			// written so that NaN always counts as a change
+			if( !changed && !(Math.abs(value - states[t]) <= tolerance) ) {
+				changed = true;
+			}
+			if( value != states[t] ) {
+				states[t] = value;
+				markTargetsStale(t);
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * Update the stale nodes in evaluation order, so that a node changed
+	 * early in the pass makes the nodes it feeds stale later in the same pass
+	 */
+	private void incrementalInOrder() {
+		// Only the count of the stale list is kept up to date here.  Every stale
+		// node is in the order, so the list is empty again by the end of the pass.
+		for( int i = 0; i < order.length && numStale > 0; i++ ) {
+			int t = order[i];
+			if( stale[t] ) {
+				stale[t] = false;
+				numStale--;
+				double value = activation.apply(weightedSum(states, t));
+				if( value != states[t] ) {
+					states[t] = value;
+					markTargetsStale(t);
+				}
+			}
+		}
 	}
 	
-	private boolean stateHasChanged( double[] old ) {
-		for( int i = 0; i < states.length; i++ ) {
-			if( states[i] != old[i] ) {
-				return true;
+	/**
+	 * Add up the weighted inputs of node t
+	 * @param src	The states to read the inputs from
+	 * @param t		The node
+	 * @return		The weighted sum
+	 */
+	double weightedSum(double[] src, int t) {
+		double sum = 0;
+		for( int c = inStart[t]; c < inStart[t+1]; c++ ) {
+			sum += src[inFrom[c]] * inWeight[c];
+		}
+		return sum;
+	}
+	
+	/**
+	 * Run every row of inputs through the network, as if each row was given
+	 * to setInputs, followed by updateUntilSteady(max) and getOutputs.  Rows
+	 * are evaluated side by side for feed-forward networks.  Recurrent networks
+	 * carry their state from one row into the next, so their rows are evaluated
+	 * one at a time.
+	 *
+	 * @param inputs	The input values, [row][input index]
+	 * @param outputs	The array to fill with output values, [row][output index]
+	 * @param max		The maximum number of updates per row for a recurrent network
+	 * @return			The total number of updates done over all of the rows
+	 */
+	public int updateBatch(double[][] inputs, double[][] outputs, int max) {
+		int rows = inputs.length;
+		if( order == null ) {
+			int count = 0;
+			for( int r = 0; r < rows; r++ ) {
+				setInputs(inputs[r]);
+				count += updateUntilSteady(max);
+				getOutputs(outputs[r]);
+			}
+			return count;
+		}
+		if( rows == 0 ) {
+			return 0;
+		}
+		
+		if( batchStates.length < numNodes * rows ) {
+			batchStates = new double[numNodes * rows];
+		}
+		if( batchSums.length < rows ) {
+			batchSums = new double[rows];
+		}
+		double[] batch = batchStates;
+		double[] sums = batchSums;
+		
+		// start every node from its current state, then fill in the inputs for each row
+		for( int n = 0; n < numNodes; n++ ) {
+			Arrays.fill(batch, n * rows, (n + 1) * rows, states[n]);
+		}
+		for( int i = 0; i < inputNodes.length; i++ ) {
+			int base = inputNodes[i] * rows;
+			for( int r = 0; r < rows; r++ ) {
+				batch[base + r] = inputs[r][i];
 			}
 		}
-		return false;
+		
+		// evaluate one node at a time, for all of the rows
+		for( int i = 0; i < order.length; i++ ) {
+			int t = order[i];
+			batchWeightedSums(t, batch, sums, rows);
+			int base = t * rows;
+			for( int r = 0; r < rows; r++ ) {
+				batch[base + r] = activation.apply(sums[r]);
+			}
+		}
+		
+		for( int o = 0; o < outputNodes.length; o++ ) {
+			int base = outputNodes[o] * rows;
+			for( int r = 0; r < rows; r++ ) {
+				outputs[r][o] = batch[base + r];
+			}
+		}
+		
+		// leave the network as it would be after the last row
+		for( int n = 0; n < numNodes; n++ ) {
+			setState(n, batch[n * rows + rows - 1]);
+		}
+		return rows;
 	}
+	
+	/**
+	 * Add up the weighted inputs of node t for every row of a batch.  Connections
+	 * are taken two at a time, so the sums are loaded and stored half as often,
+	 * but each row still adds its terms in the same order as updateOnce does.
+	 *
+	 * @param t		The node to sum the inputs of
+	 * @param batch	The node states for every row
+	 * @param sums	The array to put the sums in
+	 * @param rows	The number of rows
+	 */
+	void batchWeightedSums(int t, double[] batch, double[] sums, int rows) {
+		Arrays.fill(sums, 0, rows, 0.0);
+		int c = inStart[t];
+		int end = inStart[t+1];
+		for( ; c + 1 < end; c += 2 ) {
+			int fromA = inFrom[c] * rows;
+			int fromB = inFrom[c+1] * rows;
+			double weightA = inWeight[c];
+			double weightB = inWeight[c+1];
+			for( int r = 0; r < rows; r++ ) {
+				sums[r] = (sums[r] + batch[fromA + r] * weightA) + batch[fromB + r] * weightB;
+			}
+		}
+		if( c < end ) {
+			int from = inFrom[c] * rows;
+			double weight = inWeight[c];
+			for( int r = 0; r < rows; r++ ) {
+				sums[r] += batch[from + r] * weight;
+			}
+		}
+	}
+	
+	/**
+	 * Find the index of a named input
+	 * @param name	The input name
+	 * @return		The index of the input
+	 */
+	public int getInputIndex(String name) {
+		for( int i = 0; i < inputNames.length; i++ ) {
+			if( inputNames[i].equals(name) ) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No input named " + name);
+	}
+	
+	/**
+	 * Find the index of a named output
+	 * @param name	The output name
+	 * @return		The index of the output
+	 */
+	public int getOutputIndex(String name) {
+		for( int i = 0; i < outputNames.length; i++ ) {
+			if( outputNames[i].equals(name) ) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No output named " + name);
+	}
+	
+	public int getNumInputs() {
+		return inputNodes.length;
+	}
+	
+	public int getNumOutputs() {
+		return outputNodes.length;
+	}
+	
+	/**
+	 * Set every input at once
+	 * @param values	The input values, by input index
+	 */
+	public void setInputs(double[] values) {
+		for( int i = 0; i < inputNodes.length; i++ ) {
+			setState(inputNodes[i], values[i]);
+		}
+	}
+	
+	public void setInput(int index, double value) {
+		setState(inputNodes[index], value);
+	}
+	
+	/**
+	 * Get every output at once
+	 * @param dst	The array to fill with the output values, by output index
+	 */
+	public void getOutputs(double[] dst) {
+		for( int i = 0; i < outputNodes.length; i++ ) {
+			dst[i] = states[outputNodes[i]];
+		}
+	}
+	
+	public double getOutput(int index) {
+		return states[outputNodes[index]];
+	}
+	
 	public void setInputs(Map<String, Double> values) {
 		for( String name : values.keySet() ) {
-			states[inputs.get(name)] = values.get(name);
+			setInput(getInputIndex(name), values.get(name));
 		}
 	}
 	
 	public Map<String, Double> getOutputs() {
 		Map<String, Double> values = new HashMap<String, Double>();
-		for( String name : outputs.keySet() ) {
-			int index = outputs.get(name);
-			values.put(name, states[index]);
+		for( int i = 0; i < outputNames.length; i++ ) {
+			values.put(outputNames[i], states[outputNodes[i]]);
 		}
 		return values;
 	}
 	
+	/**
+	 * Set the weight of a connection, adding or removing the connection as needed.
+	 * A weight of zero is the same as having no connection.
+	 * @param from		The source node
+	 * @param to		The target node
+	 * @param weight	The new weight
+	 */
 	public void setWeight(int from, int to, double weight) {
-		connections[from][to] = weight;
+		int index = Arrays.binarySearch(inFrom, inStart[to], inStart[to+1], from);
+		if( index >= 0 ) {
+			if( weight != 0 ) {
+				inWeight[index] = weight;
+			} else {
+				removeConnection(to, index);
+			}
+		} else if( weight != 0 ) {
+			insertConnection(to, -(index + 1), from, weight);
+		}
+		if( incremental ) {
+			// start over with the new connections
+			setIncremental(true);
+		}
+	}
+	
+	private void insertConnection(int to, int index, int from, double weight) {
+		int count = inFrom.length;
+		int[] newFrom = new int[count + 1];
+		double[] newWeight = new double[count + 1];
+		System.arraycopy(inFrom, 0, newFrom, 0, index);
+		System.arraycopy(inWeight, 0, newWeight, 0, index);
+		newFrom[index] = from;
+		newWeight[index] = weight;
+		System.arraycopy(inFrom, index, newFrom, index + 1, count - index);
+		System.arraycopy(inWeight, index, newWeight, index + 1, count - index);
+		inFrom = newFrom;
+		inWeight = newWeight;
+		// the connection starts may be shared with other networks
+		inStart = inStart.clone();
+		for( int t = to + 1; t <= numNodes; t++ ) {
+			inStart[t]++;
+		}
+		order = NeuralNetworkBuilder.evaluationOrder(numNodes, inStart, inFrom);
+		structureChanged();
+	}
+	
+	private void removeConnection(int to, int index) {
+		int count = inFrom.length;
+		int[] newFrom = new int[count - 1];
+		double[] newWeight = new double[count - 1];
+		System.arraycopy(inFrom, 0, newFrom, 0, index);
+		System.arraycopy(inWeight, 0, newWeight, 0, index);
+		System.arraycopy(inFrom, index + 1, newFrom, index, count - index - 1);
+		System.arraycopy(inWeight, index + 1, newWeight, index, count - index - 1);
+		inFrom = newFrom;
+		inWeight = newWeight;
+		// the connection starts may be shared with other networks
+		inStart = inStart.clone();
+		for( int t = to + 1; t <= numNodes; t++ ) {
+			inStart[t]--;
+		}
+		order = NeuralNetworkBuilder.evaluationOrder(numNodes, inStart, inFrom);
+		structureChanged();
+	}
+	
+	/**
+	 * Drop the compiled version, which was made for the old connections.
+	 * Changing a weight alone keeps it, since it reads the weights as it goes.
+	 */
+	private void structureChanged() {
+		stepTask = null;
+		kernel = null;
+		compileAttempted = false;
+		updateCount = 0;
 	}
 	
 	public void setState(int node, double state) {
+		double old = states[node];
 		states[node] = state;
+		stateSet(node, old);
 	}
 	
 	public double getState(int node) {
 		return states[node];
 	}
+	
+	public Activation getActivation() {
+		return activation;
+	}
+	
+	public Precision getPrecision() {
+		return Precision.DOUBLE;
+	}
+	
+	/**
+	 * @return	True if the network has a cycle, so it can't be evaluated in a single pass
+	 */
+	public boolean isRecurrent() {
+		return order == null;
+	}
+	
+	public int getNumNodes() {
+		return numNodes;
+	}
+	
+	public int getNumConnections() {
+		return inFrom.length;
+	}
 }
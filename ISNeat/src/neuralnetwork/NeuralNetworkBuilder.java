@@ -1,10 +1,9 @@
 package neuralnetwork;
 
+import java.util.Arrays;
 import java.util.Map;
 
-import evolution.ConnectionGene;
 import evolution.Genome;
-import evolution.NodeGene;
 
 /**
  * Builds neural networks
@@ -16,30 +15,136 @@ public class NeuralNetworkBuilder {
 	}
 	
 	/**
-	 * 
+	 * Build a network using the exact activation function
 	 * @param genome	The genome representing the network
 	 * @param inputs	Map for naming the input nodes
 	 * @param outputs	Map for naming the output nodes
 	 * @return			The constructed neural network
 	 */
 	public static NeuralNetwork build( Genome genome, Map<String, Integer> inputs, Map<String, Integer> outputs ) {
-		
-		// find highest node id and collect input/output nodes
-		int maxNode = 0;
-		for( NodeGene node : genome.getNodes() ) {
-			maxNode = Math.max(node.getId(), maxNode);
+		return build(genome, inputs, outputs, Activation.EXACT);
+	}
+	
+	/**
+	 * Build a network with double precision weights
+	 * @param genome		The genome representing the network
+	 * @param inputs		Map for naming the input nodes
+	 * @param outputs		Map for naming the output nodes
+	 * @param activation	The activation function for the nodes
+	 * @return				The constructed neural network
+	 */
+	public static NeuralNetwork build( Genome genome, Map<String, Integer> inputs, Map<String, Integer> outputs, Activation activation ) {
+		return build(genome, inputs, outputs, activation, Precision.DOUBLE);
+	}
+	
+	/**
+	 *
+	 * @param genome		The genome representing the network
+	 * @param inputs		Map for naming the input nodes
+	 * @param outputs		Map for naming the output nodes
+	 * @param activation	The activation function for the nodes
+	 * @param precision		How the network stores its weights
+	 * @return				The constructed neural network
+	 */
+	public static NeuralNetwork build( Genome genome, Map<String, Integer> inputs, Map<String, Integer> outputs, Activation activation, Precision precision ) {
+		Topology topology = new Topology(genome);
+		return build(topology, topology.weights(genome), inputs, outputs, activation, precision);
+	}
+	
+	/**
+	 * Build a network without the nodes and connections that can't affect any
+	 * output.  The outputs are exactly the same as the full network's, but the
+	 * remaining nodes are numbered densely, so their indices for getState and
+	 * setWeight aren't the genome's node ids.  Only feed-forward networks are
+	 * pruned, since a recurrent network's steps depend on all of its nodes
+	 * settling, so recurrent networks are built with every node.
+	 * @param genome	The genome representing the network
+	 * @param inputs	Map for naming the input nodes
+	 * @param outputs	Map for naming the output nodes
+	 * @return			The constructed neural network
+	 */
+	public static NeuralNetwork buildPruned( Genome genome, Map<String, Integer> inputs, Map<String, Integer> outputs ) {
+		Topology topology = new Topology(genome, inputs, outputs);
+		return build(topology, topology.weights(genome), inputs, outputs, Activation.EXACT, Precision.DOUBLE);
+	}
+	
+	/**
+	 * Build a network from a topology and its weights
+	 * @param topology		The structure of the network
+	 * @param weights		The weight of each connection in the topology
+	 * @param inputs		Map for naming the input nodes
+	 * @param outputs		Map for naming the output nodes
+	 * @param activation	The activation function for the nodes
+	 * @param precision		How the network stores its weights
+	 * @return				The constructed neural network
+	 */
+	static NeuralNetwork build( Topology topology, double[] weights, Map<String, Integer> inputs, Map<String, Integer> outputs, Activation activation, Precision precision ) {
+		int numNodes = topology.numNodes;
+		int[] inStart = topology.inStart;
+		int[] inFrom = topology.inFrom;
+		int[] order = topology.order;
+		inputs = topology.renumber(inputs);
+		outputs = topology.renumber(outputs);
+		switch( precision ) {
+		case FLOAT:
+			return new FloatNeuralNetwork(numNodes, inStart, inFrom, weights, order, inputs, outputs, activation);
+		case INT16:
+		case INT8:
+			return new QuantizedNeuralNetwork(numNodes, inStart, inFrom, weights, order, inputs, outputs, activation, precision);
+		default:
+			return new NeuralNetwork(numNodes, inStart, inFrom, weights, order, inputs, outputs, activation);
 		}
+	}
+	
+	/**
+	 * Find an order to evaluate the nodes in so that every node comes after all
+	 * of the nodes that feed into it.  Only nodes with incoming connections are
+	 * included, since the rest never change on their own.
+	 *
+	 * @param numNodes	The number of nodes
+	 * @param inStart	The start of each node's incoming connections
+	 * @param inFrom	The source node of each connection
+	 * @return			The evaluation order, or null if the network has a cycle
+	 */
+	static int[] evaluationOrder( int numNodes, int[] inStart, int[] inFrom ) {
+		final byte UNVISITED = 0, VISITING = 1, DONE = 2;
+		byte[] marks = new byte[numNodes];
+		int[] order = new int[numNodes];
+		int count = 0;
 		
-		// Create the unconnected network containing the necessary nodes
-		NeuralNetwork nn = new NeuralNetwork(maxNode+1, inputs, outputs);
-		
-		// Add the connections to the network
-		for( ConnectionGene c : genome.getConnections() ) {
-			if( c.isEnabled() ) {
-				nn.setWeight(c.getIn(), c.getOut(), c.getWeight());
+		// depth first search along incoming connections, adding nodes once all of their sources are done
+		int[] stack = new int[numNodes];
+		int[] cursor = new int[numNodes];
+		for( int root = 0; root < numNodes; root++ ) {
+			if( marks[root] != UNVISITED ) {
+				continue;
+			}
+			int depth = 0;
+			stack[0] = root;
+			cursor[0] = inStart[root];
+			marks[root] = VISITING;
+			while( depth >= 0 ) {
+				int node = stack[depth];
+				if( cursor[depth] < inStart[node+1] ) {
+					int from = inFrom[cursor[depth]++];
+					if( marks[from] == VISITING ) {
+						// found a cycle, this network is recurrent
+						return null;
+					} else if( marks[from] == UNVISITED ) {
+						depth++;
+						stack[depth] = from;
+						cursor[depth] = inStart[from];
+						marks[from] = VISITING;
+					}
+				} else {
+					marks[node] = DONE;
+					if( inStart[node] != inStart[node+1] ) {
+						order[count++] = node;
+					}
+					depth--;
+				}
 			}
 		}
-		
-		return nn;
+		return Arrays.copyOf(order, count);
 	}
 }
@@ -0,0 +1,16 @@
+package neuralnetwork;
+
+/**
+ * How a network stores its connection weights.  Genomes keep their weights
+ * in [-1, 1], which fits well into fewer bits.
+ */
+public enum Precision {
+	/** 8 bytes per weight, the reference */
+	DOUBLE,
+	/** 4 bytes per weight, summed in float arithmetic */
+	FLOAT,
+	/** 2 bytes per weight, as multiples of a per network scale factor */
+	INT16,
+	/** 1 byte per weight, as multiples of a per network scale factor */
+	INT8;
+}
@@ -0,0 +1,135 @@
+package neuralnetwork;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A network that stores its weights as 8 or 16 bit integers, which are
+ * multiples of a scale factor chosen so that the largest weight uses the
+ * whole range.  Each node's inputs are added up against the integer weights
+ * and scaled once at the end.
+ *
+ * Only the weights are stored with reduced precision.  States are still
+ * doubles, so the sums are added up in double arithmetic, and this saves
+ * memory rather than time.
+ */
+class QuantizedNeuralNetwork extends NeuralNetwork {
+	
+	private final Precision precision;
+	
+	// Only one of these is used, depending on the precision
+	private byte[] byteWeights;
+	private short[] shortWeights;
+	private double scale;
+	// The magnitude that the largest weight is stored as
+	private final int limit;
+	
+	QuantizedNeuralNetwork(int numNodes, int[] inStart, int[] inFrom, double[] inWeight, int[] order, Map<String, Integer> inputs, Map<String, Integer> outputs, Activation activation, Precision precision) {
+		super(numNodes, inStart, inFrom, inWeight, order, inputs, outputs, activation);
+		if( precision != Precision.INT8 && precision != Precision.INT16 ) {
+			throw new IllegalArgumentException("Not an integer precision: " + precision);
+		}
+		this.precision = precision;
+		this.limit = precision == Precision.INT8 ? Byte.MAX_VALUE : Short.MAX_VALUE;
+		storeWeights();
+	}
+	
+	/**
+	 * Quantize the double weights into the integer array, reusing it if it has room
+	 */
+	private void storeWeights() {
+		int count = getNumConnections();
+		double largest = 0;
+		for( int c = 0; c < count; c++ ) {
+			largest = Math.max(largest, Math.abs(inWeight[c]));
+		}
+		scale = largest > 0 ? largest / limit : 1;
+		
+		if( precision == Precision.INT8 ) {
+			if( byteWeights == null || byteWeights.length < count ) {
+				byteWeights = new byte[capacity(count)];
+			}
+			for( int c = 0; c < count; c++ ) {
+				byteWeights[c] = (byte) Math.round(inWeight[c] / scale);
+			}
+		} else {
+			if( shortWeights == null || shortWeights.length < count ) {
+				shortWeights = new short[capacity(count)];
+			}
+			for( int c = 0; c < count; c++ ) {
+				shortWeights[c] = (short) Math.round(inWeight[c] / scale);
+			}
+		}
+		inWeight = null;
+	}
+	
+	private double weight(int c) {
+		return (byteWeights != null ? byteWeights[c] : shortWeights[c]) * scale;
+	}
+	
+	@Override
+	double weightedSum(double[] src, int t) {
+		double sum = 0;
+		if( byteWeights != null ) {
+			for( int c = inStart[t]; c < inStart[t+1]; c++ ) {
+				sum += src[inFrom[c]] * byteWeights[c];
+			}
+		} else {
+			for( int c = inStart[t]; c < inStart[t+1]; c++ ) {
+				sum += src[inFrom[c]] * shortWeights[c];
+			}
+		}
+		return sum * scale;
+	}
+	
+	@Override
+	void batchWeightedSums(int t, double[] batch, double[] sums, int rows) {
+		Arrays.fill(sums, 0, rows, 0.0);
+		for( int c = inStart[t]; c < inStart[t+1]; c++ ) {
+			int from = inFrom[c] * rows;
+			int weight = byteWeights != null ? byteWeights[c] : shortWeights[c];
+			for( int r = 0; r < rows; r++ ) {
+				sums[r] += batch[from + r] * weight;
+			}
+		}
+		for( int r = 0; r < rows; r++ ) {
+			sums[r] *= scale;
+		}
+	}
+	
+	@Override
+	void reset(int numNodes, int[] inStart, int[] inFrom, double[] inWeight, int[] order, Map<String, Integer> inputs, Map<String, Integer> outputs) {
+		super.reset(numNodes, inStart, inFrom, inWeight, order, inputs, outputs);
+		storeWeights();
+	}
+	
+	@Override
+	public void setWeight(int from, int to, double weight) {
+		int index = Arrays.binarySearch(inFrom, inStart[to], inStart[to+1], from);
+		if( index >= 0 && weight != 0 && Math.abs(weight) <= scale * limit && Math.abs(weight(index)) < scale * limit ) {
+			// The structure stays the same, and a weight that isn't being replaced
+			// is still the largest, so the scale stays the same too
+			if( byteWeights != null ) {
+				byteWeights[index] = (byte) Math.round(weight / scale);
+			} else {
+				shortWeights[index] = (short) Math.round(weight / scale);
+			}
+			if( isIncremental() ) {
+				setIncremental(true);
+			}
+			return;
+		}
+		int count = getNumConnections();
+		inWeight = new double[count];
+		for( int c = 0; c < count; c++ ) {
+			inWeight[c] = weight(c);
+		}
+		super.setWeight(from, to, weight);
+		storeWeights();
+	}
+	
+	@Override
+	public Precision getPrecision() {
+		return precision;
+	}
+}
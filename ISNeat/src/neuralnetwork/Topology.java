@@ -0,0 +1,344 @@
+package neuralnetwork;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import evolution.Genome;
+import evolution.NodeType;
+
+/**
+ * The structure of the network built from a genome, without its weights.
+ * Genomes that differ only in their weights (such as a child that only had
+ * its weights mutated) share a topology, so their networks can be made by
+ * filling in a new weight array instead of building the structure again.
+ *
+ * A topology can also leave out the nodes that can't affect any output, and
+ * number the remaining nodes densely, so the network has smaller state
+ * arrays and fewer connections to add up on every update.  Only feed-forward
+ * networks are pruned.  A recurrent network steps until all of its states are
+ * steady, including those of nodes that can't reach an output, so leaving
+ * them out could change how many steps it takes, or make the network
+ * feed-forward if its only cycles were among them.
+ *
+ * A topology is never changed once it is made, so networks share its arrays.
+ * Networks copy them before changing their own connections.
+ */
+final class Topology {
+	
+	// Slot of a gene that is disabled, or overwritten by a later gene for the same connection
+	private static final int UNUSED = -1;
+	// Slot of a gene whose weight was zero, so its connection was left out
+	private static final int ZERO = -2;
+	
+	final int numNodes;
+	final int[] inStart;
+	final int[] inFrom;
+	final int[] order;
+	
+	// One more than the genome's highest node id
+	private final int numIds;
+	// The network's index for each of the genome's node ids, -1 for nodes left out, or null if none were
+	private final int[] nodeIndex;
+	
+	// Where each gene's weight goes in the weight array
+	private final int[] geneSlots;
+	// The end points of each gene, for checking that a genome really has this topology
+	private final int[] geneIn;
+	private final int[] geneOut;
+	
+	/**
+	 * A network's connections in compressed sparse row form, while a topology is being made
+	 */
+	private static final class Connections {
+		private final int numNodes;
+		private final int[] inStart;
+		private final int[] inFrom;
+		
+		Connections( int numNodes, int[] inStart, int[] inFrom ) {
+			this.numNodes = numNodes;
+			this.inStart = inStart;
+			this.inFrom = inFrom;
+		}
+	}
+	
+	/**
+	 * Work out the structure of a genome's network, keeping every node
+	 * @param genome	The genome representing the network
+	 */
+	Topology( Genome genome ) {
+		this(genome, null, null);
+	}
+	
+	/**
+	 * Work out the structure of a genome's network.  Connections are grouped
+	 * by the node they go into and sorted by source node.  When a genome has
+	 * several genes for the same connection the last one wins, and connections
+	 * with a weight of zero are left out, just as if the weights had been
+	 * written into a [from][to] matrix.
+	 *
+	 * When the inputs and outputs are given and the network is feed-forward,
+	 * the nodes and connections that can't reach an output are left out.  The
+	 * inputs and outputs are always kept, and the remaining nodes are numbered
+	 * in order of their ids.  Recurrent networks keep every node.
+	 *
+	 * @param genome	The genome representing the network
+	 * @param inputs	Map naming the input nodes, or null to keep every node
+	 * @param outputs	Map naming the output nodes, or null to keep every node
+	 */
+	Topology( Genome genome, Map<String, Integer> inputs, Map<String, Integer> outputs ) {
+		numIds = maxNode(genome)+1;
+		int numNodes = numIds;
+		
+		int numGenes = genome.getNumConnections();
+		geneIn = new int[numGenes];
+		geneOut = new int[numGenes];
+		double[] geneWeight = new double[numGenes];
+		for( int g = 0; g < numGenes; g++ ) {
+			geneIn[g] = genome.getIn(g);
+			geneOut[g] = genome.isEnabled(g) ? genome.getOut(g) : UNUSED;
+			geneWeight[g] = genome.getWeight(g);
+		}
+		
+		// Count the enabled connections going into each node
+		int[] inStart = new int[numNodes+1];
+		for( int g = 0; g < numGenes; g++ ) {
+			if( geneOut[g] != UNUSED ) {
+				inStart[geneOut[g]+1]++;
+			}
+		}
+		for( int t = 0; t < numNodes; t++ ) {
+			inStart[t+1] += inStart[t];
+		}
+		
+		// Group the genes by the node they go into, keeping the genome's order
+		int[] inGene = new int[inStart[numNodes]];
+		int[] next = new int[numNodes];
+		System.arraycopy(inStart, 0, next, 0, numNodes);
+		for( int g = 0; g < numGenes; g++ ) {
+			if( geneOut[g] != UNUSED ) {
+				inGene[next[geneOut[g]]++] = g;
+			}
+		}
+		
+		geneSlots = new int[numGenes];
+		Arrays.fill(geneSlots, UNUSED);
+		int[] from = new int[inGene.length];
+		int write = 0;
+		for( int t = 0; t < numNodes; t++ ) {
+			int start = inStart[t];
+			int end = inStart[t+1];
+			
+			// stable insertion sort by source node, since nodes rarely have many inputs
+			for( int i = start + 1; i < end; i++ ) {
+				int gene = inGene[i];
+				int j = i - 1;
+				while( j >= start && geneIn[inGene[j]] > geneIn[gene] ) {
+					inGene[j+1] = inGene[j];
+					j--;
+				}
+				inGene[j+1] = gene;
+			}
+			
+			inStart[t] = write;
+			for( int i = start; i < end; i++ ) {
+				int gene = inGene[i];
+				if( i + 1 < end && geneIn[inGene[i+1]] == geneIn[gene] ) {
+					// a later gene overwrites this one
+					continue;
+				}
+				if( geneWeight[gene] != 0 ) {
+					from[write] = geneIn[gene];
+					geneSlots[gene] = write;
+					write++;
+				} else {
+					geneSlots[gene] = ZERO;
+				}
+			}
+		}
+		inStart[numNodes] = write;
+		Connections connections = new Connections(numNodes, inStart, Arrays.copyOf(from, write));
+		
+		// Feed-forward genomes can be evaluated in a single pass
+		int[] order = NeuralNetworkBuilder.evaluationOrder(numNodes, inStart, connections.inFrom);
+		if( outputs != null && order != null ) {
+			nodeIndex = keptNodes(genome, inputs, outputs, connections);
+			connections = prune(connections, nodeIndex, geneSlots);
+			// pruning only leaves out nodes, so the rest is still feed-forward
+			order = NeuralNetworkBuilder.evaluationOrder(connections.numNodes, connections.inStart, connections.inFrom);
+		} else {
+			nodeIndex = null;
+		}
+		this.numNodes = connections.numNodes;
+		this.inStart = connections.inStart;
+		this.inFrom = connections.inFrom;
+		this.order = order;
+	}
+	
+	/**
+	 * Find the nodes that can reach an output, and number them densely.
+	 * Numbering them in order of their ids keeps each node's connections
+	 * sorted, so the weighted sums are added up in the same order and the
+	 * outputs come out exactly the same.
+	 *
+	 * @return	The new index of each node, -1 for the nodes left out
+	 */
+	private static int[] keptNodes( Genome genome, Map<String, Integer> inputs, Map<String, Integer> outputs, Connections connections ) {
+		int numNodes = connections.numNodes;
+		int[] inStart = connections.inStart;
+		int[] inFrom = connections.inFrom;
+		
+		// search backwards from the outputs along incoming connections
+		boolean[] keep = new boolean[numNodes];
+		int[] stack = new int[numNodes];
+		int top = 0;
+		for( int node : outputs.values() ) {
+			if( !keep[node] ) {
+				keep[node] = true;
+				stack[top++] = node;
+			}
+		}
+		while( top > 0 ) {
+			int t = stack[--top];
+			for( int c = inStart[t]; c < inStart[t+1]; c++ ) {
+				if( !keep[inFrom[c]] ) {
+					keep[inFrom[c]] = true;
+					stack[top++] = inFrom[c];
+				}
+			}
+		}
+		
+		// inputs are kept so they can still be set, even if nothing uses them
+		for( int node : inputs.values() ) {
+			keep[node] = true;
+		}
+		for( int n = 0; n < genome.getNumNodes(); n++ ) {
+			if( genome.getNodeType(n) == NodeType.INPUT || genome.getNodeType(n) == NodeType.OUTPUT ) {
+				keep[genome.getNodeId(n)] = true;
+			}
+		}
+		
+		int[] index = new int[numNodes];
+		int count = 0;
+		for( int n = 0; n < numNodes; n++ ) {
+			index[n] = keep[n] ? count++ : -1;
+		}
+		return index;
+	}
+	
+	/**
+	 * Leave out the nodes that can't reach an output, along with their connections
+	 * @param connections	The connections of every node
+	 * @param index			The new index of each node, -1 for the nodes left out
+	 * @param geneSlots		Where each gene's weight goes, updated to where it goes after pruning
+	 * @return				The connections of the kept nodes
+	 */
+	private static Connections prune( Connections connections, int[] index, int[] geneSlots ) {
+		int numNodes = connections.numNodes;
+		int[] inStart = connections.inStart;
+		int[] inFrom = connections.inFrom;
+		int count = 0;
+		for( int n = 0; n < numNodes; n++ ) {
+			if( index[n] >= 0 ) {
+				count++;
+			}
+		}
+		
+		// copy the connections from kept nodes into kept nodes, remembering where each one moved
+		int[] newStart = new int[count+1];
+		int[] newFrom = new int[inFrom.length];
+		int[] moved = new int[inFrom.length];
+		int write = 0;
+		for( int t = 0; t < numNodes; t++ ) {
+			if( index[t] >= 0 ) {
+				newStart[index[t]] = write;
+			}
+			for( int c = inStart[t]; c < inStart[t+1]; c++ ) {
+				if( index[t] >= 0 && index[inFrom[c]] >= 0 ) {
+					newFrom[write] = index[inFrom[c]];
+					moved[c] = write++;
+				} else {
+					moved[c] = UNUSED;
+				}
+			}
+		}
+		newStart[count] = write;
+		for( int g = 0; g < geneSlots.length; g++ ) {
+			if( geneSlots[g] >= 0 ) {
+				geneSlots[g] = moved[geneSlots[g]];
+			}
+		}
+		
+		return new Connections(count, newStart, Arrays.copyOf(newFrom, write));
+	}
+	
+	/**
+	 * Give the network's index for each of the named nodes
+	 * @param nodes	Map naming nodes by their ids in the genome
+	 * @return		Map naming the same nodes by their index in the network
+	 */
+	Map<String, Integer> renumber( Map<String, Integer> nodes ) {
+		if( nodeIndex == null ) {
+			return nodes;
+		}
+		Map<String, Integer> renumbered = new HashMap<String, Integer>();
+		for( Map.Entry<String, Integer> entry : nodes.entrySet() ) {
+			renumbered.put(entry.getKey(), nodeIndex[entry.getValue()]);
+		}
+		return renumbered;
+	}
+	
+	/**
+	 * Check whether a genome has this topology, ignoring its weights
+	 * @param genome	The genome to check
+	 * @return			True if the genome's connections match this topology's
+	 */
+	boolean matches( Genome genome ) {
+		if( genome.getNumConnections() != geneSlots.length ) {
+			return false;
+		}
+		for( int g = 0; g < geneSlots.length; g++ ) {
+			int out = genome.isEnabled(g) ? genome.getOut(g) : UNUSED;
+			if( genome.getIn(g) != geneIn[g] || out != geneOut[g] ) {
+				return false;
+			}
+		}
+		return maxNode(genome)+1 == numIds;
+	}
+	
+	/**
+	 * @return	The genome's highest node id
+	 */
+	private static int maxNode( Genome genome ) {
+		int maxNode = 0;
+		for( int n = 0; n < genome.getNumNodes(); n++ ) {
+			maxNode = Math.max(genome.getNodeId(n), maxNode);
+		}
+		return maxNode;
+	}
+	
+	/**
+	 * Fill in the weight array of a genome with this topology
+	 * @param genome	A genome that matches this topology
+	 * @return			The weight of each connection, or null if one of the
+	 * 					genome's weights has changed to or from zero, which
+	 * 					changes the structure
+	 */
+	double[] weights( Genome genome ) {
+		double[] weights = new double[inFrom.length];
+		for( int g = 0; g < geneSlots.length; g++ ) {
+			int slot = geneSlots[g];
+			if( slot == UNUSED ) {
+				continue;
+			}
+			double weight = genome.getWeight(g);
+			if( (slot == ZERO) != (weight == 0) ) {
+				return null;
+			}
+			if( slot != ZERO ) {
+				weights[slot] = weight;
+			}
+		}
+		return weights;
+	}
+}
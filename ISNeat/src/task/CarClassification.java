@@ -1,7 +1,9 @@
 package task;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class CarClassification {
@@ -71,7 +73,12 @@ public class CarClassification {
 	}
 	public final String safety;
 	
+	// The input names, in the order used by the input array
+	public static final List<String> INPUT_NAMES = Collections.unmodifiableList(
+			Arrays.asList("buying", "doors", "lugBoot", "maint", "persons", "safety"));
+	
 	private final Map<String, Double> inputValues;
+	private final double[] inputArray;
 	private final double outputValue;
 	
 	public CarClassification( String[] attributes ) throws Exception {
@@ -102,6 +109,11 @@ public class CarClassification {
 		
 		classification = attributes[6];
 		outputValue = classes.get(classification);
+		
+		inputArray = new double[INPUT_NAMES.size()];
+		for( int i = 0; i < inputArray.length; i++ ) {
+			inputArray[i] = inputValues.get(INPUT_NAMES.get(i));
+		}
 	}
 	
 	/**
@@ -126,6 +138,14 @@ public class CarClassification {
 		return inputValues;
 	}
 	
+	/**
+	 * The input values in the same order as INPUT_NAMES
+	 * @return	The input values
+	 */
+	public double[] getInputArray() {
+		return inputArray;
+	}
+	
 	public double getOutput() {
 		return outputValue;
 	}
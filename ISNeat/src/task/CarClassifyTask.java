@@ -4,24 +4,36 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Scanner;
-import java.util.Set;
 
 import neuralnetwork.NeuralNetwork;
 
 public class CarClassifyTask implements Task {
 	
-	LinkedList<CarClassification> trainCarList;
-	LinkedList<CarClassification> testCarList;
+	// Recurrent networks are updated until they settle, for at most MAX_UPDATES
+	private static final int MAX_UPDATES = 5;
+	
+	// How close to settled a recurrent network has to be, and whether a two step cycle counts as settled
+	private double convergenceTolerance = 0;
+	private boolean oscillationDetection = false;
+	
+	List<CarClassification> trainCarList;
+	List<CarClassification> testCarList;
+	
+	// The input values of each car, in INPUT_NAMES order
+	double[][] trainInputs;
+	double[][] testInputs;
+	
+	// Each evaluating thread's output matrix, reused from one network to the next
+	private final ThreadLocal<double[][]> outputBuffers = new ThreadLocal<double[][]>();
+	
 	public CarClassifyTask( String filename ) throws FileNotFoundException {
 		// open data file and a scanner for it
 		Scanner scan = new Scanner( new File(filename) );
 		
-		trainCarList = new LinkedList<CarClassification>();
-		testCarList = new LinkedList<CarClassification>();
+		trainCarList = new ArrayList<CarClassification>();
+		testCarList = new ArrayList<CarClassification>();
 		
 		// Read in lines
 		int count = 0;
@@ -45,14 +57,41 @@ public class CarClassifyTask implements Task {
 		}
 		
 		scan.close();
+		
+		trainInputs = inputMatrix(trainCarList);
+		testInputs = inputMatrix(testCarList);
+	}
+	
+	/**
+	 * Let recurrent networks stop updating once their states are within a
+	 * tolerance of their previous ones, instead of exactly equal.  The
+	 * default is 0, which is how the networks have always been evaluated.
+	 * @param tolerance	The largest change that still counts as settled
+	 */
+	public void setConvergenceTolerance(double tolerance) {
+		this.convergenceTolerance = tolerance;
+	}
+	
+	/**
+	 * Let recurrent networks stop updating when they flip between two states.
+	 * This is off by default.
+	 * @param detect	True to count a two step cycle as settled
+	 */
+	public void setOscillationDetection(boolean detect) {
+		this.oscillationDetection = detect;
+	}
+	
+	private static double[][] inputMatrix(List<CarClassification> carList) {
+		double[][] matrix = new double[carList.size()][];
+		for( int i = 0; i < matrix.length; i++ ) {
+			matrix[i] = carList.get(i).getInputArray();
+		}
+		return matrix;
 	}
 	
 	@Override
 	public List<String> getInputs() {
-		Set<String> inputSet = trainCarList.getFirst().getInputs().keySet();
-		List<String> inputList = new ArrayList<String>( inputSet );
-		Collections.sort( inputList );
-		return inputList;
+		return CarClassification.INPUT_NAMES;
 	}
 
 	@Override
@@ -62,21 +101,61 @@ public class CarClassifyTask implements Task {
 
 	@Override
 	public double calculateTrainFitness(NeuralNetwork neuralNetwork) {
-		return calcFit(neuralNetwork, trainCarList);
+		return calcFit(neuralNetwork, trainCarList, trainInputs);
 	}
 	
 	@Override
 	public double calculateTestFitness(NeuralNetwork neuralNetwork) {
-		return calcFit(neuralNetwork, testCarList);
+		return calcFit(neuralNetwork, testCarList, testInputs);
 	}
 	
-	private double calcFit(NeuralNetwork neuralNetwork, List<CarClassification> carList) {
+	private double calcFit(NeuralNetwork neuralNetwork, List<CarClassification> carList, double[][] carInputs) {
+		// find where each of the car's inputs goes in the network
+		List<String> names = getInputs();
+		int[] inputIndices = new int[names.size()];
+		boolean sameOrder = true;
+		for( int i = 0; i < inputIndices.length; i++ ) {
+			inputIndices[i] = neuralNetwork.getInputIndex(names.get(i));
+			sameOrder = sameOrder && inputIndices[i] == i;
+		}
+		int outputIndex = neuralNetwork.getOutputIndex("classification");
+		
+		// rearrange the inputs if the network doesn't order them the same way
+		double[][] inputs = carInputs;
+		if( !sameOrder ) {
+			inputs = new double[carInputs.length][neuralNetwork.getNumInputs()];
+			for( int r = 0; r < inputs.length; r++ ) {
+				for( int i = 0; i < inputIndices.length; i++ ) {
+					inputs[r][inputIndices[i]] = carInputs[r][i];
+				}
+			}
+		}
+		
+		// run every car through the network at once
+		double[][] outputs = outputBuffer(inputs.length, neuralNetwork.getNumOutputs());
+		neuralNetwork.setConvergenceTolerance(convergenceTolerance);
+		neuralNetwork.setOscillationDetection(oscillationDetection);
+		neuralNetwork.updateBatch(inputs, outputs, MAX_UPDATES);
+		
 		double numCorrect = 0;
-		for( CarClassification c : carList ) {
-			neuralNetwork.setInputs(c.getInputs());
-			neuralNetwork.updateUntilSteady(5);
-			numCorrect += c.outputCorrectness( neuralNetwork.getOutputs().get("classification") );
+		for( int r = 0; r < inputs.length; r++ ) {
+			numCorrect += carList.get(r).outputCorrectness( outputs[r][outputIndex] );
 		}
 		return numCorrect / carList.size();
 	}
+	
+	/**
+	 * Get this thread's output matrix, making a bigger one if it is too small
+	 * @param rows			The number of rows needed
+	 * @param numOutputs	The number of outputs in each row
+	 * @return				A matrix with at least that many rows and outputs
+	 */
+	private double[][] outputBuffer(int rows, int numOutputs) {
+		double[][] outputs = outputBuffers.get();
+		if( outputs == null || outputs.length < rows || (rows > 0 && outputs[0].length < numOutputs) ) {
+			outputs = new double[rows][numOutputs];
+			outputBuffers.set(outputs);
+		}
+		return outputs;
+	}
 }
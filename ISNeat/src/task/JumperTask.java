@@ -1,7 +1,6 @@
 package task;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
@@ -19,19 +18,19 @@ public class JumperTask implements Task {
 	private static final double VIEW_DISTANCE = 1000.0;
 
 	private final double goal;
+	// The obstacle courses for training and testing.  Each evaluation makes its own
+	// Random from these, so evaluations can run on several threads at once.
 	private final long seed;
-	
-	private Random rand;
+	private final long testSeed;
 	
 	public JumperTask( long distanceGoal ) {
-		rand = new Random();
-		seed = rand.nextLong();
-		goal = distanceGoal;
+		this( new Random().nextLong(), distanceGoal );
 	}
 	
 	public JumperTask( long seed, long distanceGoal ) {
 		this.seed = seed;
-		rand = new Random( seed );
+		// a different course from training, but the same one every time
+		this.testSeed = new Random( seed ).nextLong();
 		goal = distanceGoal;
 	}
 	
@@ -46,7 +45,13 @@ public class JumperTask implements Task {
 		return Arrays.asList("jump");
 	}
 
-	public double calculateFitness( NeuralNetwork neuralNetwork ) {
+	/**
+	 * Run the network through an obstacle course
+	 * @param neuralNetwork	The network playing the game
+	 * @param rand			Random number generator for the obstacles
+	 * @return				The fraction of the goal distance traveled
+	 */
+	public double calculateFitness( NeuralNetwork neuralNetwork, Random rand ) {
 		long traveled = 0;
 		double speed = 10.0;
 		int timeToNextObstacle = 60;
@@ -55,26 +60,34 @@ public class JumperTask implements Task {
 		boolean onGround = true;
 		LinkedList<JumperObstacle> obstacles = new LinkedList<JumperObstacle>();
 		
-		HashMap<String,Double> inputs = new HashMap<String,Double>();
-		inputs.put("bias", 1.0);
+		// look up the input and output indices once, rather than by name every step
+		int biasIndex = neuralNetwork.getInputIndex("bias");
+		int speedIndex = neuralNetwork.getInputIndex("speed");
+		int typeIndex = neuralNetwork.getInputIndex("obstacleType");
+		int distanceIndex = neuralNetwork.getInputIndex("obstacleDistance");
+		int widthIndex = neuralNetwork.getInputIndex("obstacleWidth");
+		int jumpIndex = neuralNetwork.getOutputIndex("jump");
+		
+		double[] inputs = new double[neuralNetwork.getNumInputs()];
+		inputs[biasIndex] = 1.0;
 		while( traveled <= goal ) {
 			// update the current speed
 			speed = Math.min(speed + DELTA_SPEED, MAX_SPEED);
 						
 			// get output of network for current inputs
-			inputs.put("speed", (speed / MAX_SPEED));
+			inputs[speedIndex] = speed / MAX_SPEED;
 			if( obstacles.isEmpty() ) {
-				inputs.put( "obstacleType", 0.0 );
-				inputs.put( "obstacleDistance", 1.0 );
-				inputs.put( "obstacleWidth", 0.0 );
+				inputs[typeIndex] = 0.0;
+				inputs[distanceIndex] = 1.0;
+				inputs[widthIndex] = 0.0;
 			} else {
-				inputs.put( "obstacleType", obstacles.getFirst().getType() );
-				inputs.put( "obstacleDistance", obstacles.getFirst().distance / VIEW_DISTANCE );
-				inputs.put( "obstacleWidth", obstacles.getFirst().width / MAX_WIDTH );
+				inputs[typeIndex] = obstacles.getFirst().getType();
+				inputs[distanceIndex] = obstacles.getFirst().distance / VIEW_DISTANCE;
+				inputs[widthIndex] = obstacles.getFirst().width / MAX_WIDTH;
 			}
 			neuralNetwork.setInputs(inputs);
 			neuralNetwork.updateOnce();
-			double jumpAmount = neuralNetwork.getOutputs().get("jump");
+			double jumpAmount = neuralNetwork.getOutput(jumpIndex);
 			
 			//// Update The Game ////
 
@@ -135,13 +148,12 @@ public class JumperTask implements Task {
 	
 	@Override
 	public double calculateTestFitness( NeuralNetwork neuralNetwork ) {
-		return calculateFitness( neuralNetwork );
+		return calculateFitness( neuralNetwork, new Random(testSeed) );
 	}
 
 	@Override
 	public double calculateTrainFitness( NeuralNetwork neuralNetwork ) {
-		rand = new Random(seed);
-		return calculateFitness( neuralNetwork );
+		return calculateFitness( neuralNetwork, new Random(seed) );
 	}
 	
 	@SuppressWarnings("unused")
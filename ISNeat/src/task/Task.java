@@ -4,16 +4,29 @@ import java.util.List;
 
 import neuralnetwork.NeuralNetwork;
 
+/**
+ * A task that networks are evolved to perform.
+ * 
+ * Fitnesses are calculated on several threads at once, each with its own
+ * network, so implementations must be thread safe.  Anything that changes
+ * during an evaluation, such as a random number generator or a simulation's
+ * state, belongs in local variables rather than fields, and an evaluation
+ * should depend only on the network so that it gives the same fitness on
+ * any thread in any order.
+ */
 public interface Task {
 
 	/**
 	 * Get the input names for this task.  Needed in order to know how to build the initial neural networks.
+	 * When evaluating, resolve each name to its index once with NeuralNetwork.getInputIndex and then
+	 * pass the values by index, rather than by name on every update.
 	 * @return	List of input names
 	 */
 	public List<String> getInputs();
 	
 	/**
 	 * Get the output names for this task.  Needed in order to know how to build the initial neural networks.
+	 * Output indices are resolved the same way, with NeuralNetwork.getOutputIndex.
 	 * @return	List of output names
 	 */
 	public List<String> getOutputs();